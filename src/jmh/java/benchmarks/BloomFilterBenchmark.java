@@ -0,0 +1,105 @@
+package benchmarks;
+
+import dataStructures.BloomFilter;
+import hashing.HashingMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BloomFilter.add and contains, for filters of different sizes (from cache resident to much larger
+ * than the caches) and fill ratios (the fraction of the expected elements added before measuring)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BloomFilterBenchmark {
+
+    /**
+     * Number of keys queried, cycled over by the benchmarks
+     */
+    private static final int NUM_KEYS = 1 << 16;
+    private static final int KEYS_MASK = NUM_KEYS - 1;
+
+    @Param({"100000", "10000000", "200000000"})
+    long expectedNumEntries;
+
+    @Param({"0.1", "0.5", "1.0"})
+    double fillRatio;
+
+    @Param({"SEEDED", "DOUBLE_HASHING"})
+    HashingMode hashingMode;
+
+    private BloomFilter<String> filter;
+
+    /**
+     * Keys that were added to the filter, and keys that were not
+     */
+    private long[] presentKeys;
+    private long[] absentKeys;
+    private String[] presentStrings;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        filter = new BloomFilter<>(expectedNumEntries, 0.01, hashingMode);
+        long numAdded = (long) (expectedNumEntries * fillRatio);
+        // Even keys are added, odd keys are not
+        for (long i = 0; i < numAdded; i++) {
+            filter.add(2 * i);
+        }
+        Random random = new Random(42);
+        presentKeys = new long[NUM_KEYS];
+        absentKeys = new long[NUM_KEYS];
+        presentStrings = new String[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            presentKeys[i] = 2 * (long) (random.nextDouble() * Math.max(1, numAdded));
+            absentKeys[i] = 2 * random.nextLong() + 1;
+            presentStrings[i] = Long.toString(presentKeys[i]);
+            filter.add(presentStrings[i]);
+        }
+    }
+
+    /**
+     * Adds keys that already belong to the filter, so the fill ratio doesn't change while measuring
+     */
+    @Benchmark
+    public void addLong () {
+        filter.add(presentKeys[next++ & KEYS_MASK]);
+    }
+
+    @Benchmark
+    public boolean containsPresentLong () {
+        return filter.contains(presentKeys[next++ & KEYS_MASK]);
+    }
+
+    @Benchmark
+    public boolean containsAbsentLong () {
+        return filter.contains(absentKeys[next++ & KEYS_MASK]);
+    }
+
+    @Benchmark
+    public void addString () {
+        filter.add(presentStrings[next++ & KEYS_MASK]);
+    }
+
+    @Benchmark
+    public boolean containsString () {
+        return filter.contains(presentStrings[next++ & KEYS_MASK]);
+    }
+}
@@ -0,0 +1,147 @@
+package benchmarks;
+
+import hashing.HashingFunctionsHandler;
+import hashing.MurmurHash3;
+import hashing.RollingHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Hashing of one k-mer: the MurmurHash3 variants over Strings, bytes and encoded k-mers,
+ * the functions of HashingFunctionsHandler used by the bloom filters, and the rolling hash
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+    @Param({"21", "31"})
+    int k;
+
+    /**
+     * Upper bound of the hashing functions: below and above Integer.MAX_VALUE
+     */
+    @Param({"1000000", "10000000000"})
+    long upperBound;
+
+    @Param({"3", "7"})
+    int numFunctions;
+
+    private String kmer;
+    private byte[] kmerBytes;
+    private long encodedKmer;
+    private final MurmurHash3.LongPair pair = new MurmurHash3.LongPair();
+
+    private List<Function<String, Long>> functions;
+    private LongUnaryOperator[] longFunctions;
+
+    private RollingHash rollingHash;
+    private long rolling;
+
+    @Setup
+    public void setup () {
+        kmer = SyntheticData.randomSequence(k, 42);
+        kmerBytes = kmer.getBytes(StandardCharsets.US_ASCII);
+        encodedKmer = SyntheticData.sampledKmers(1, k, 1000, 42)[0];
+        HashingFunctionsHandler handler = new HashingFunctionsHandler(numFunctions);
+        functions = handler.getFunctions(upperBound).collect(Collectors.toList());
+        longFunctions = handler.getLongFunctions(upperBound).toArray(LongUnaryOperator[]::new);
+        rollingHash = new RollingHash(k);
+        rolling = RollingHash.hash(encodedKmer, k);
+    }
+
+    @Benchmark
+    public int murmur3x86String () {
+        return MurmurHash3.murmurhash3_x86_32(kmer, 0, kmer.length(), 0);
+    }
+
+    @Benchmark
+    public int murmur3x86Bytes () {
+        return MurmurHash3.murmurhash3_x86_32(kmerBytes, 0, kmerBytes.length, 0);
+    }
+
+    @Benchmark
+    public int murmur3x86Long () {
+        return MurmurHash3.murmurhash3_x86_32(encodedKmer, 0);
+    }
+
+    @Benchmark
+    public long murmur3x64Bytes () {
+        MurmurHash3.murmurhash3_x64_128(kmerBytes, 0, kmerBytes.length, 0, pair);
+        return pair.val1 ^ pair.val2;
+    }
+
+    @Benchmark
+    public long murmur3x64Long () {
+        MurmurHash3.murmurhash3_x64_128(encodedKmer, 0, pair);
+        return pair.val1 ^ pair.val2;
+    }
+
+    /**
+     * Hashes into two longs, as BloomFilter.add(long) does in HashingMode.DOUBLE_HASHING
+     */
+    @Benchmark
+    public long murmur3x64LongHalves () {
+        return MurmurHash3.murmurhash3_x64_128_val1(encodedKmer, 0) ^ MurmurHash3.murmurhash3_x64_128_val2(encodedKmer, 0);
+    }
+
+    @Benchmark
+    public long fmix64 () {
+        return MurmurHash3.fmix64(encodedKmer);
+    }
+
+    /**
+     * Applies all the functions for Strings, as BloomFilter.add(String) does
+     */
+    @Benchmark
+    public void handlerStringFunctions (Blackhole blackhole) {
+        for (Function<String, Long> function : functions) {
+            blackhole.consume(function.apply(kmer));
+        }
+    }
+
+    /**
+     * Applies all the functions for encoded k-mers, as BloomFilter.add(long) does
+     */
+    @Benchmark
+    public void handlerLongFunctions (Blackhole blackhole) {
+        for (LongUnaryOperator function : longFunctions) {
+            blackhole.consume(function.applyAsLong(encodedKmer));
+        }
+    }
+
+    /**
+     * Applies all the functions for Strings through a Stream of boxed indices,
+     * as BloomFilter.add(String) does
+     */
+    @Benchmark
+    public void handlerStringIndicesStream (Blackhole blackhole) {
+        functions.stream().map(function -> function.apply(kmer)).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public long rollingHash () {
+        rolling = rollingHash.roll(rolling, 0, 3);
+        return rolling;
+    }
+}
@@ -0,0 +1,113 @@
+package benchmarks;
+
+import dataStructures.KmerIterator;
+import dataStructures.MinimizerOrder;
+import dataStructures.Sequence;
+import dataStructures.SuperKmerIterator;
+import fileIO.SequenceIO;
+import io.reactivex.rxjava3.core.Flowable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the k-mers of a set of reads: as Strings through SequenceIO.getAllKmers, and
+ * encoded with KmerIterator (plain, with rolling hashes, canonical) and SuperKmerIterator.
+ * Each invocation extracts all the k-mers of the reads, so the score is k-mers/s
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KmerExtractionBenchmark {
+
+    private static final int K = 31;
+    private static final int M = 15;
+    private static final int NUM_READS = 1000;
+    private static final int READ_LENGTH = 150;
+    private static final int NUM_KMERS = NUM_READS * (READ_LENGTH - K + 1);
+
+    private final SequenceIO sequenceIO = new SequenceIO();
+    private List<Sequence> reads;
+
+    private final KmerIterator iterator = new KmerIterator(K);
+    private final KmerIterator rollingIterator = new KmerIterator(K, true);
+    private final KmerIterator canonicalIterator = new KmerIterator(K, true, true);
+    private final SuperKmerIterator superKmerIterator = new SuperKmerIterator(K, M, MinimizerOrder.RANDOM, false);
+
+    @Setup
+    public void setup () {
+        Random random = new Random(42);
+        Sequence[] sequences = new Sequence[NUM_READS];
+        for (int i = 0; i < NUM_READS; i++) {
+            sequences[i] = new Sequence("read" + i, SyntheticData.randomSequence(READ_LENGTH, random.nextLong()));
+        }
+        reads = Arrays.asList(sequences);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public long sequenceIOStrings () {
+        return sequenceIO.getAllKmers(Flowable.fromIterable(reads), K).count().blockingGet();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public void encoded (Blackhole blackhole) {
+        for (Sequence read : reads) {
+            iterator.reset(read);
+            while (iterator.next()) {
+                blackhole.consume(iterator.getKmer());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public void encodedRolling (Blackhole blackhole) {
+        for (Sequence read : reads) {
+            rollingIterator.reset(read);
+            while (rollingIterator.next()) {
+                blackhole.consume(rollingIterator.getHash());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public void encodedCanonical (Blackhole blackhole) {
+        for (Sequence read : reads) {
+            canonicalIterator.reset(read);
+            while (canonicalIterator.next()) {
+                blackhole.consume(canonicalIterator.getHash());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public void superKmers (Blackhole blackhole) {
+        for (Sequence read : reads) {
+            superKmerIterator.reset(read);
+            while (superKmerIterator.next()) {
+                blackhole.consume(superKmerIterator.getTail());
+            }
+        }
+    }
+}
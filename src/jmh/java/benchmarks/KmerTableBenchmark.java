@@ -0,0 +1,67 @@
+package benchmarks;
+
+import dataStructures.KmerTable;
+import hashing.HashingMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KmerTable.add over the k-mers of reads sampled from a random genome: most k-mers are seen
+ * several times, so both the bloom filter and the count map are exercised. The table is created
+ * again before each iteration, and each invocation adds all the k-mers, so the score is k-mers/s
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class KmerTableBenchmark {
+
+    static final int NUM_KMERS = 1 << 20;
+    static final int GENOME_LENGTH = 1 << 18;
+
+    @Param({"21", "31"})
+    int k;
+
+    @Param({"SEEDED", "ROLLING", "DOUBLE_HASHING"})
+    HashingMode hashingMode;
+
+    @Param({"false", "true"})
+    boolean canonical;
+
+    private long[] kmers;
+    private KmerTable table;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        kmers = SyntheticData.sampledKmers(NUM_KMERS, k, GENOME_LENGTH, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void createTable () {
+        table = new KmerTable(k, GENOME_LENGTH, 0.01, hashingMode, canonical);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public KmerTable addEncoded () {
+        for (long kmer : kmers) {
+            table.add(kmer);
+        }
+        return table;
+    }
+}
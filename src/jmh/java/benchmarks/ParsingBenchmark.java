@@ -0,0 +1,110 @@
+package benchmarks;
+
+import fileIO.SequenceIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * End to end processing of synthetic FASTA and FASTQ files, plain (mapped into memory) and
+ * compressed with gzip (read line by line): parsing only, and parsing plus counting the k-mers.
+ * Each invocation processes the whole file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParsingBenchmark {
+
+    /**
+     * Size of the files: around 20 MB of bases
+     */
+    private static final int NUM_READS = 100000;
+    private static final int READ_LENGTH = 200;
+    private static final int NUM_FASTA_SEQUENCES = 100;
+    private static final int FASTA_SEQUENCE_LENGTH = NUM_READS * READ_LENGTH / NUM_FASTA_SEQUENCES;
+
+    private static final int K = 31;
+
+    @Param({"fasta", "fastq"})
+    String format;
+
+    @Param({"false", "true"})
+    boolean compressed;
+
+    private final SequenceIO sequenceIO = new SequenceIO();
+    private File directory;
+    private String filePath;
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException {
+        directory = Files.createTempDirectory("parsing-benchmark").toFile();
+        File file = new File(directory, "sequences." + format);
+        if (format.equals("fasta")) {
+            SyntheticData.writeFasta(file, NUM_FASTA_SEQUENCES, FASTA_SEQUENCE_LENGTH);
+        } else {
+            SyntheticData.writeFastq(file, NUM_READS, READ_LENGTH);
+        }
+        if (compressed) {
+            File compressedFile = new File(directory, file.getName() + ".gz");
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(compressedFile))) {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            file.delete();
+            file = compressedFile;
+        }
+        filePath = file.getPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown () {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long parse () {
+        return sequenceIO.readFile(filePath).count().blockingGet();
+    }
+
+    /**
+     * Parses the file and counts its k-mers, sizing the bloom filter with an estimate
+     * of the distinct k-mers
+     */
+    @Benchmark
+    public int parseAndCount () {
+        return sequenceIO.fillKmerTable(filePath, K, 0.01).blockingGet().getSize();
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import dataStructures.KmerTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KmerTable.add(String) on a table that stores the k-mers as Strings, the path used for k > 32.
+ * Same input and scoring as KmerTableBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StringKmerTableBenchmark {
+
+    private static final int NUM_KMERS = KmerTableBenchmark.NUM_KMERS;
+    private static final int GENOME_LENGTH = KmerTableBenchmark.GENOME_LENGTH;
+
+    @Param({"31", "41"})
+    int k;
+
+    private String[] kmers;
+    private KmerTable table;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        String genome = SyntheticData.randomSequence(GENOME_LENGTH, 42);
+        Random random = new Random(43);
+        kmers = new String[NUM_KMERS];
+        for (int i = 0; i < NUM_KMERS; i++) {
+            int start = random.nextInt(GENOME_LENGTH - k);
+            kmers[i] = genome.substring(start, start + k);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createTable () {
+        table = new KmerTable(GENOME_LENGTH, 0.01);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KMERS)
+    public KmerTable add () {
+        for (String kmer : kmers) {
+            table.add(kmer);
+        }
+        return table;
+    }
+}
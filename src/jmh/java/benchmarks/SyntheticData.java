@@ -0,0 +1,108 @@
+package benchmarks;
+
+import dataStructures.KmerIterator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic inputs of the benchmarks. They are generated from fixed seeds, so every run
+ * measures the same data
+ */
+final class SyntheticData {
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Length of the lines of the sequences in the FASTA files
+     */
+    private static final int FASTA_LINE_LENGTH = 60;
+
+    private SyntheticData () {}
+
+    /**
+     * @param length - number of bases
+     * @param seed - seed of the random generator
+     * @return a random sequence of A, C, G and T
+     */
+    static String randomSequence (int length, long seed) {
+        Random random = new Random(seed);
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = BASES[random.nextInt(BASES.length)];
+        }
+        return new String(bases);
+    }
+
+    /**
+     * Gets the k-mers of reads sampled from a random genome, so most k-mers appear several
+     * times, like in sequencing data
+     * @param numKmers - number of k-mers
+     * @param k - length of the k-mers
+     * @param genomeLength - length of the genome from which the reads are sampled
+     * @param seed - seed of the random generator
+     * @return the encoded k-mers
+     */
+    static long[] sampledKmers (int numKmers, int k, int genomeLength, long seed) {
+        String genome = randomSequence(genomeLength, seed);
+        Random random = new Random(seed + 1);
+        KmerIterator iterator = new KmerIterator(k);
+        long[] kmers = new long[numKmers];
+        int readLength = 150;
+        int i = 0;
+        while (i < numKmers) {
+            int start = random.nextInt(genomeLength - readLength);
+            iterator.reset(genome.subSequence(start, start + readLength));
+            while (i < numKmers && iterator.next()) {
+                kmers[i++] = iterator.getKmer();
+            }
+        }
+        return kmers;
+    }
+
+    /**
+     * Writes a FASTA file with random sequences
+     * @param file - file to write
+     * @param numSequences - number of sequences
+     * @param sequenceLength - number of bases of each sequence
+     * @throws IOException if the file can't be written
+     */
+    static void writeFasta (File file, int numSequences, int sequenceLength) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < numSequences; i++) {
+                writer.append(">sequence").append(Integer.toString(i)).append('\n');
+                String sequence = randomSequence(sequenceLength, random.nextLong());
+                for (int j = 0; j < sequenceLength; j += FASTA_LINE_LENGTH) {
+                    writer.append(sequence, j, Math.min(sequenceLength, j + FASTA_LINE_LENGTH)).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a FASTQ file with random reads
+     * @param file - file to write
+     * @param numReads - number of reads
+     * @param readLength - number of bases of each read
+     * @throws IOException if the file can't be written
+     */
+    static void writeFastq (File file, int numReads, int readLength) throws IOException {
+        Random random = new Random(42);
+        char[] score = new char[readLength];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < numReads; i++) {
+                for (int j = 0; j < readLength; j++) {
+                    score[j] = (char) ('!' + random.nextInt(41));
+                }
+                writer.append("@read").append(Integer.toString(i)).append('\n')
+                        .append(randomSequence(readLength, random.nextLong())).append('\n')
+                        .append("+\n")
+                        .append(new String(score)).append('\n');
+            }
+        }
+    }
+}
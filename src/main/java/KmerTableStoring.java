@@ -1,9 +1,14 @@
 import dataStructures.KmerTable;
 import dataStructures.Sequence;
 import fileIO.SequenceIO;
-import io.reactivex.rxjava3.core.Observable;
+import hashing.HashingMode;
+import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.disposables.Disposable;
+import metrics.PipelineMetrics;
+import metrics.ProgressReporter;
+
+import javax.management.JMException;
 
 
 public class KmerTableStoring {
@@ -20,16 +25,16 @@ public class KmerTableStoring {
     /**
      * Instance to read and write sequences
      */
-    private static final SequenceIO sequenceIO = new SequenceIO();
+    private static final SequenceIO sequenceIO = new SequenceIO(new PipelineMetrics());
 
 
     private static void directoryReadingTest (String directoryPath) {
         System.out.println("Reading files from directory: " + directoryPath);
-        Disposable d = sequenceIO.readFiles(directoryPath).subscribe(
+        // the files are read on other threads, so the emissions are awaited
+        sequenceIO.readFiles(directoryPath).blockingSubscribe(
                 sequence -> System.out.println("Emission: " + sequence.getId()),
                 Throwable::printStackTrace
         );
-        d.dispose();
     }
 
     private static void fileReadingTest (String filePath) {
@@ -43,22 +48,30 @@ public class KmerTableStoring {
 
     private static void kmerExtractionFileTest (String filePath, int k, double expectedError) {
         System.out.println("Reading kmers of length " + k + " from file: " + filePath);
-        Observable<Sequence> sequences = sequenceIO.readFile(filePath);
-        sequenceIO.fillKmerTable(sequences, k, 160000000, expectedError).subscribe(
+        Flowable<Sequence> sequences = sequenceIO.readFile(filePath);
+        sequenceIO.fillKmerTable(sequences, k, expectedError, HashingMode.SEEDED).subscribe(
                 kmerTable -> kmerTable.store(sequenceIO.buildOutputFileNameKmerTable(filePath))
         );
     }
 
     private static void kmerExtractionDirectoryTest (String directoryPath, int k, double expectedError) {
         System.out.println("Reading kmers of length " + k + " from directory: " + directoryPath);
-        Observable<Sequence> sequences = sequenceIO.readFiles(directoryPath);
-        sequenceIO.fillKmerTable(sequences, k, expectedError).subscribe(
-                kmerTable -> kmerTable.store(sequenceIO.buildOutputFileNameKmerTable(directoryPath))
-        );
+        Flowable<Sequence> sequences = sequenceIO.readFiles(directoryPath);
+        KmerTable kmerTable = sequenceIO.fillKmerTable(sequences, k, expectedError).blockingGet();
+        kmerTable.store(sequenceIO.buildOutputFileNameKmerTable(directoryPath));
     }
 
 
-    public static void main(String[] args) {
-        kmerExtractionFileTest(testEcoliFASTQ, 15, 0.05);
+    public static void main(String[] args) throws JMException {
+        PipelineMetrics metrics = sequenceIO.getMetrics();
+        metrics.register("KmerTableStoring");
+        ProgressReporter reporter = new ProgressReporter(metrics);
+        try {
+            kmerExtractionFileTest(testEcoliFASTQ, 15, 0.05);
+        } finally {
+            reporter.close();
+            metrics.unregister();
+        }
+        System.out.println("Time per stage (ms): " + metrics.getStageMillis());
     }
 }
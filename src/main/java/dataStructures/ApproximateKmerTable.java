@@ -0,0 +1,126 @@
+package dataStructures;
+
+import hashing.HashingMode;
+import hashing.RollingHash;
+
+/**
+ * KmerTable of encoded k-mers with approximate frequencies, kept in a CountMinSketch instead of a
+ * bloom filter and an exact count map. Its memory is fixed by the error and the confidence, no matter
+ * how many k-mers are added, so it's meant for abundance screening of inputs whose k-mers don't fit
+ * in memory. The frequencies are never underestimated, and the k-mers themselves are not stored,
+ * so the table can't be iterated or written.
+ */
+public class ApproximateKmerTable extends KmerTable {
+
+    /**
+     * Approximate frequencies of the k-mers
+     */
+    private final CountMinSketch sketch;
+
+    /**
+     * Number of k-mers whose estimated frequency reached 2
+     */
+    private long numRepeated;
+
+    /**
+     * @param k - length of the k-mers
+     * @param epsilon - Maximum overestimate of a frequency, as a fraction of the number of k-mers added
+     * @param confidence - Probability that a frequency is within the error, between 0 and 1
+     * @param hashingMode - With HashingMode.ROLLING the rolling hashes of the k-mers are given to the
+     *                    sketch, otherwise the sketch hashes the k-mers
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    public ApproximateKmerTable (int k, double epsilon, double confidence, HashingMode hashingMode, boolean canonical) {
+        this(k, new CountMinSketch(epsilon, confidence), hashingMode, canonical);
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param sketch - sketch of the frequencies. It should be empty
+     * @param hashingMode - How the k-mers are hashed into the sketch
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    public ApproximateKmerTable (int k, CountMinSketch sketch, HashingMode hashingMode, boolean canonical) {
+        super(k, hashingMode, canonical);
+        this.sketch = sketch;
+    }
+
+    @Override
+    public void add (long kmer) {
+        kmer = toStoredForm(kmer);
+        if (getHashingMode() == HashingMode.ROLLING) {
+            add(kmer, RollingHash.hash(kmer, getK()));
+        } else {
+            onAdded(sketch.add(kmer));
+        }
+    }
+
+    @Override
+    public void add (long kmer, long hash) {
+        onAdded(sketch.addHash(hash));
+    }
+
+    private void onAdded (short estimate) {
+        if (estimate == 2) {
+            numRepeated++;
+        }
+    }
+
+    @Override
+    public short get (long kmer) {
+        kmer = toStoredForm(kmer);
+        short estimate = getHashingMode() == HashingMode.ROLLING
+                ? sketch.getHash(RollingHash.hash(kmer, getK()))
+                : sketch.get(kmer);
+        return estimate == 0 ? 1 : estimate;
+    }
+
+    @Override
+    public boolean contains (long kmer) {
+        kmer = toStoredForm(kmer);
+        if (getHashingMode() == HashingMode.ROLLING) {
+            return sketch.getHash(RollingHash.hash(kmer, getK())) > 0;
+        }
+        return sketch.get(kmer) > 0;
+    }
+
+    /**
+     * Estimates the number of k-mers with frequency greater than 1: the k-mers whose estimate
+     * reached 2 when they were added. It is approximate: a collision in the sketch can make
+     * a new k-mer start at 2, or a repeated one skip it
+     * @return the estimated number of k-mers with frequency greater than 1
+     */
+    @Override
+    public int getSize () {
+        return (int) Math.min(Integer.MAX_VALUE, numRepeated);
+    }
+
+    /**
+     * Estimates the probability that a k-mer that was never added is reported as contained
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        return sketch.getFalsePositiveRate();
+    }
+
+    /**
+     * @return the mean overestimate of the frequencies measured on a sample of the k-mers
+     * (see CountMinSketch.getMeasuredError)
+     */
+    public double getMeasuredError () {
+        return sketch.getMeasuredError();
+    }
+
+    /**
+     * @return the sketch of the frequencies
+     */
+    public CountMinSketch getSketch () {
+        return sketch;
+    }
+
+    @Override
+    public void forEachEncoded (KmerCountMap.EntryConsumer consumer) {
+        throw new UnsupportedOperationException("The k-mers of an approximate table are not stored");
+    }
+}
@@ -15,11 +15,26 @@ public class BitArray {
     /**
      * Size of the array; number of bits
      */
-    private int size;
+    private final long size;
 
-    public BitArray (int size) {
+    public BitArray (long size) {
+        long segments = (size + BITS_IN_SEGMENT - 1) / BITS_IN_SEGMENT;
+        if (segments > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many bits for an array in the heap: " + size + ". Use an OffHeapBitArray");
+        }
         this.size = size;
-        this.arr = new int[size/BITS_IN_SEGMENT + size % BITS_IN_SEGMENT];
+        this.arr = new int[(int) segments];
+    }
+
+    /**
+     * Constructor for bit arrays that keep the bits in other storage (e.g. OffHeapBitArray).
+     * Subclasses must override get, set, getLong, orLong and getCardinality
+     * @param size - size of the array; number of bits
+     * @param arr - must be null
+     */
+    protected BitArray (long size, int[] arr) {
+        this.size = size;
+        this.arr = arr;
     }
 
     /**
@@ -28,10 +43,9 @@ public class BitArray {
      * @param idx - requested index
      * @return bit at position idx: true (1) or false (0)
      */
-    public boolean get (int idx) {
+    public boolean get (long idx) {
         int mask = 1 << (idx % BITS_IN_SEGMENT);
-        int segmentPos = idx / BITS_IN_SEGMENT;
-        return (arr[idx / BITS_IN_SEGMENT] & mask) == mask;
+        return (arr[(int) (idx / BITS_IN_SEGMENT)] & mask) == mask;
     }
 
     /**
@@ -39,17 +53,74 @@ public class BitArray {
      * @param idx - requested index
      * @param bit - Bit to be positioned
      */
-    public void set (int idx, boolean bit) {
-        int segment = arr[idx / BITS_IN_SEGMENT];
+    public void set (long idx, boolean bit) {
+        int segmentPos = (int) (idx / BITS_IN_SEGMENT);
+        int segment = arr[segmentPos];
         int mask = 1 << (idx % BITS_IN_SEGMENT);
-        arr[idx / BITS_IN_SEGMENT] =
+        arr[segmentPos] =
                 bit ? segment | mask : segment & (~0 - mask);
     }
 
+    /**
+     * Gets 64 consecutive bits of the array: the bits [64 * longIdx, 64 * longIdx + 63].
+     * The bit 64 * longIdx + j is the j-th least significant bit of the result
+     * @param longIdx - index of the group of 64 bits
+     * @return the bits as a long
+     */
+    public long getLong (long longIdx) {
+        int segmentPos = (int) (longIdx * 2);
+        long bits = arr[segmentPos] & 0xffffffffL;
+        if (segmentPos + 1 < arr.length) {
+            bits |= (long) arr[segmentPos + 1] << BITS_IN_SEGMENT;
+        }
+        return bits;
+    }
+
+    /**
+     * Sets the bits of 64 consecutive positions that are set in the given long: the bits
+     * [64 * longIdx, 64 * longIdx + 63] become their bitwise OR with bits (see getLong)
+     * @param longIdx - index of the group of 64 bits
+     * @param bits - bits to set
+     */
+    protected void orLong (long longIdx, long bits) {
+        int segmentPos = (int) (longIdx * 2);
+        arr[segmentPos] |= (int) bits;
+        if (segmentPos + 1 < arr.length) {
+            arr[segmentPos + 1] |= (int) (bits >>> BITS_IN_SEGMENT);
+        }
+    }
+
+    /**
+     * Sets all the bits that are set in another array of the same size (bitwise OR).
+     * The other array can keep its bits in other storage, e.g. an OffHeapBitArray
+     * @param other - array whose bits are added
+     */
+    public void or (BitArray other) {
+        if (other.getSize() != size) {
+            throw new IllegalArgumentException("Only arrays of the same size can be combined. " + size + " != " + other.getSize());
+        }
+        long numLongs = (size + Long.SIZE - 1) / Long.SIZE;
+        for (long i = 0; i < numLongs; i++) {
+            orLong(i, other.getLong(i));
+        }
+    }
+
+    /**
+     * Counts the bits that are set (1)
+     * @return number of bits set in the array
+     */
+    public long getCardinality () {
+        long count = 0;
+        for (int segment : arr) {
+            count += Integer.bitCount(segment);
+        }
+        return count;
+    }
+
     /**
      * @return the size in bits of the array
      */
-    public int getSize () {
+    public long getSize () {
         return size;
     }
 
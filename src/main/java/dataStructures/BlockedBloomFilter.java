@@ -0,0 +1,173 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+import hashing.RollingHash;
+
+/**
+ * Bloom filter for encoded k-mers where all the bits of an element fall inside
+ * a single block of 64 bytes (a cache line), chosen by the first half of the hash.
+ * A lookup then costs one memory access instead of one per hash function, at the cost
+ * of a slightly higher false positive rate than a BloomFilter of the same size, because
+ * the elements are not spread evenly among the blocks.
+ */
+public class BlockedBloomFilter implements KmerSet {
+
+    /**
+     * Number of longs in a block: 8 * 64 bits = 512 bits = 64 bytes
+     */
+    private static final int LONGS_PER_BLOCK = 8;
+
+    /**
+     * Number of bits in a block
+     */
+    private static final int BITS_PER_BLOCK = LONGS_PER_BLOCK * Long.SIZE;
+
+    /**
+     * Maximum number of blocks, so that the array of longs fits in the heap
+     */
+    private static final int MAX_BLOCKS = (Integer.MAX_VALUE - 8) / LONGS_PER_BLOCK;
+
+    /**
+     * Bits of the filter. Block b uses the positions [b * LONGS_PER_BLOCK, (b + 1) * LONGS_PER_BLOCK)
+     */
+    private final long[] blocks;
+
+    /**
+     * Number of blocks
+     */
+    private final int numBlocks;
+
+    /**
+     * Number of bits set per element
+     */
+    private final int numFunctions;
+
+    /**
+     * Number of elements in the filter
+     */
+    private long size = 0;
+
+    /**
+     * Blocked bloom filter constructor given the expected number of elements to be added and
+     * the expected probability of false positives. The number of bits and hash functions is
+     * the same of a BloomFilter with the same parameters
+     * @param expectedNumEntries - Expected number of elements to be added
+     * @param expectedError - Expected probability of false positives
+     */
+    public BlockedBloomFilter (long expectedNumEntries, double expectedError) {
+        long numBits = BloomFilter.getBitArraySize(expectedNumEntries, expectedError);
+        long blocksNeeded = numBits / BITS_PER_BLOCK + (numBits % BITS_PER_BLOCK == 0 ? 0 : 1);
+        if (blocksNeeded > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Too many bits for a blocked bloom filter: " + numBits
+                    + " (at most " + (long) MAX_BLOCKS * BITS_PER_BLOCK + "). Use a BloomFilter with an OffHeapBitArray");
+        }
+        this.numBlocks = (int) blocksNeeded;
+        this.blocks = new long[numBlocks * LONGS_PER_BLOCK];
+        this.numFunctions = BloomFilter.getNumberOfFunctions(numBits, expectedNumEntries);
+    }
+
+    /**
+     * Gets the position in the block of the i-th bit of an element
+     * @param h2 - second half of the hash of the element
+     * @param step - step between the bits of the element (odd)
+     * @param i - index of the bit
+     * @return a position between 0 and BITS_PER_BLOCK - 1
+     */
+    private static int getBitInBlock (long h2, long step, int i) {
+        return (int) ((h2 + i * step) >>> (Long.SIZE - 9));
+    }
+
+    /**
+     * Gets the first long of the block that corresponds to a hash
+     * @param h1 - first half of the hash of the element
+     * @return the offset of the block in the array
+     */
+    private int getBlockOffset (long h1) {
+        return (int) ((h1 >>> 1) % numBlocks) * LONGS_PER_BLOCK;
+    }
+
+    private void addHashes (long h1, long h2) {
+        int offset = getBlockOffset(h1);
+        long step = Long.rotateLeft(h2, 32) | 1;
+        for (int i = 0; i < numFunctions; i++) {
+            int bit = getBitInBlock(h2, step, i);
+            blocks[offset + (bit >>> 6)] |= 1L << bit;
+        }
+        size ++;
+    }
+
+    private boolean containsHashes (long h1, long h2) {
+        int offset = getBlockOffset(h1);
+        long step = Long.rotateLeft(h2, 32) | 1;
+        for (int i = 0; i < numFunctions; i++) {
+            int bit = getBitInBlock(h2, step, i);
+            if ((blocks[offset + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add (long kmer) {
+        addHashes(MurmurHash3.murmurhash3_x64_128_val1(kmer, 0), MurmurHash3.murmurhash3_x64_128_val2(kmer, 0));
+    }
+
+    /**
+     * Checks if an encoded k-mer belongs to the filter. It can be called from several threads
+     * at the same time, as long as the filter isn't being modified
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer belongs to the set, false otherwise
+     */
+    @Override
+    public boolean contains (long kmer) {
+        return containsHashes(MurmurHash3.murmurhash3_x64_128_val1(kmer, 0), MurmurHash3.murmurhash3_x64_128_val2(kmer, 0));
+    }
+
+    @Override
+    public void addHash (long hash) {
+        addHashes(hash, RollingHash.multiHash(hash, 1));
+    }
+
+    @Override
+    public boolean containsHash (long hash) {
+        return containsHashes(hash, RollingHash.multiHash(hash, 1));
+    }
+
+    @Override
+    public long getSize () {
+        return size;
+    }
+
+    /**
+     * Estimates the current probability of false positives. An element falls in any block with
+     * the same probability, so it's the mean over the blocks of (fraction of bits set)^numFunctions
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        double sum = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            int bitsSet = 0;
+            for (int i = b * LONGS_PER_BLOCK; i < (b + 1) * LONGS_PER_BLOCK; i++) {
+                bitsSet += Long.bitCount(blocks[i]);
+            }
+            sum += Math.pow(bitsSet / (double) BITS_PER_BLOCK, numFunctions);
+        }
+        return sum / numBlocks;
+    }
+
+    /**
+     * @return number of hash functions (bits set per element)
+     */
+    public int getNumFunctions () {
+        return numFunctions;
+    }
+
+    /**
+     * @return the size in bits of the filter
+     */
+    public long getBitSize () {
+        return (long) numBlocks * BITS_PER_BLOCK;
+    }
+}
@@ -1,19 +1,41 @@
 package dataStructures;
 
 import hashing.HashingFunctionsHandler;
+import hashing.HashingMode;
+import hashing.MurmurHash3;
+import hashing.RollingHash;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public class BloomFilter <A> {
+public class BloomFilter <A> implements KmerSet {
 
     /**
-     * A list of hash functions: h_i : A -> Int.
+     * A list of hash functions: h_i : A -> Long.
      * Each hash maps to a position in the BitArray
      */
-    private final List<Function<A, Integer>> hashFunctions;
+    private final List<Function<A, Long>> hashFunctions;
+
+    /**
+     * Hash functions for elements encoded as a long (e.g. 2-bit packed k-mers).
+     * They map to the same BitArray as hashFunctions
+     */
+    private final LongUnaryOperator[] longHashFunctions;
+
+    /**
+     * Number of hash functions
+     */
+    private final int numFunctions;
+
+    /**
+     * If true, each element is hashed only once with MurmurHash3 x64_128, and the
+     * indices are derived from the two halves of the hash (h1 + i*h2)
+     */
+    private final boolean doubleHashing;
 
     /**
      * The array used to indicate if an element belongs to the set of elements.
@@ -25,7 +47,7 @@ public class BloomFilter <A> {
     /**
      * Number of elements in the BloomFilter
      */
-    private int size = 0;
+    private long size = 0;
 
     /**
      * Bloom filter constructor given the expected number of elements to be added and
@@ -33,11 +55,77 @@ public class BloomFilter <A> {
      * @param expectedNumEntries - Expected number of elements to be added
      * @param expectedError - Expected probability of false positives
      */
-    public BloomFilter (int expectedNumEntries, double expectedError) {
-        int bitArraySize = getBitArraySize(expectedNumEntries, expectedError);
-        this.bitArray = new BitArray(bitArraySize);
-        int numFunctions = getNumberOfFunctions(bitArraySize, expectedNumEntries);
+    public BloomFilter (long expectedNumEntries, double expectedError) {
+        this(expectedNumEntries, expectedError, HashingMode.SEEDED);
+    }
+
+    /**
+     * Bloom filter constructor given the expected number of elements to be added,
+     * the expected probability of false positives and how the elements are hashed.
+     * With HashingMode.DOUBLE_HASHING each element is hashed once and all the indices are derived
+     * from that hash. Any other mode hashes the elements once per hash function (the rolling
+     * hashes of HashingMode.ROLLING are given by the caller through addHash)
+     * @param expectedNumEntries - Expected number of elements to be added
+     * @param expectedError - Expected probability of false positives
+     * @param hashingMode - How the elements are hashed
+     */
+    public BloomFilter (long expectedNumEntries, double expectedError, HashingMode hashingMode) {
+        this(expectedNumEntries, expectedError, hashingMode, false);
+    }
+
+    /**
+     * Bloom filter constructor given the expected number of elements to be added,
+     * the expected probability of false positives, how the elements are hashed and where the bits
+     * are kept. Off-heap filters (see OffHeapBitArray) can have billions of bits without
+     * increasing the heap
+     * @param expectedNumEntries - Expected number of elements to be added
+     * @param expectedError - Expected probability of false positives
+     * @param hashingMode - How the elements are hashed
+     * @param offHeap - If true, the bits are kept in direct memory instead of the heap
+     */
+    public BloomFilter (long expectedNumEntries, double expectedError, HashingMode hashingMode, boolean offHeap) {
+        this(expectedNumEntries, expectedError, hashingMode,
+                offHeap
+                        ? new OffHeapBitArray(getBitArraySize(expectedNumEntries, expectedError))
+                        : new BitArray(getBitArraySize(expectedNumEntries, expectedError)));
+    }
+
+    /**
+     * Bloom filter constructor over a given bit array, for example an OffHeapBitArray
+     * backed by a file. The array must have the size given by the expected number of
+     * elements and the expected probability of false positives
+     * @param expectedNumEntries - Expected number of elements to be added
+     * @param expectedError - Expected probability of false positives
+     * @param hashingMode - How the elements are hashed
+     * @param bitArray - Array for the bits of the filter
+     */
+    public BloomFilter (long expectedNumEntries, double expectedError, HashingMode hashingMode, BitArray bitArray) {
+        long bitArraySize = getBitArraySize(expectedNumEntries, expectedError);
+        if (bitArray.getSize() != bitArraySize) {
+            throw new IllegalArgumentException("The bit array must have " + bitArraySize + " bits. Given: " + bitArray.getSize());
+        }
+        this.doubleHashing = hashingMode == HashingMode.DOUBLE_HASHING;
+        this.bitArray = bitArray;
+        this.numFunctions = getNumberOfFunctions(bitArraySize, expectedNumEntries);
         this.hashFunctions = generateFunctions(numFunctions);
+        this.longHashFunctions = generateLongFunctions(numFunctions);
+    }
+
+    /**
+     * Bloom filter constructor over bits that were already set, e.g. the bits of a filter
+     * read from a file (see MappedKmerTable)
+     * @param numFunctions - Number of hash functions
+     * @param doubleHashing - If the elements were hashed with HashingMode.DOUBLE_HASHING
+     * @param bitArray - Bits of the filter
+     * @param size - Number of elements in the filter
+     */
+    BloomFilter (int numFunctions, boolean doubleHashing, BitArray bitArray, long size) {
+        this.doubleHashing = doubleHashing;
+        this.bitArray = bitArray;
+        this.numFunctions = numFunctions;
+        this.hashFunctions = generateFunctions(numFunctions);
+        this.longHashFunctions = generateLongFunctions(numFunctions);
+        this.size = size;
     }
 
     /**
@@ -47,11 +135,11 @@ public class BloomFilter <A> {
      * @param expectedError - Expected probability of false positives
      * @return the size of the needed bit array
      */
-    private int getBitArraySize (int expectedNumEntries, double expectedError) {
+    public static long getBitArraySize (long expectedNumEntries, double expectedError) {
         double logErr = Math.log(expectedError);
         double log2 = Math.log(2);
         double size = - (expectedNumEntries*logErr)/(Math.pow(log2, 2));
-        return (int) size;
+        return Math.max(1, (long) size);
     }
 
     /**
@@ -59,14 +147,26 @@ public class BloomFilter <A> {
      * @param numFunctions - Number of functions to be created
      * @return - A list of hash functions
      */
-    private List<Function<A, Integer>> generateFunctions (int numFunctions) {
+    private List<Function<A, Long>> generateFunctions (int numFunctions) {
         HashingFunctionsHandler functionsHandler = new HashingFunctionsHandler(numFunctions);
         return functionsHandler
                 .getFunctions(bitArray.getSize())
-                .map(h -> (Function<A, Integer>) a -> h.apply(a.toString()))
+                .map(h -> (Function<A, Long>) a -> h.apply(a.toString()))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Creates an array of hashing functions for elements encoded as a long
+     * @param numFunctions - Number of functions to be created
+     * @return - An array of hash functions
+     */
+    private LongUnaryOperator[] generateLongFunctions (int numFunctions) {
+        HashingFunctionsHandler functionsHandler = new HashingFunctionsHandler(numFunctions);
+        return functionsHandler
+                .getLongFunctions(bitArray.getSize())
+                .toArray(LongUnaryOperator[]::new);
+    }
+
     /**
      * Calculates the number of needed hashing functions in accordance to the expected
      * number of elements to be added to the set and the size of the bit array
@@ -74,8 +174,8 @@ public class BloomFilter <A> {
      * @param expectedNumEntries - Expected number of elements to be added
      * @return the number of functions to be created
      */
-    private int getNumberOfFunctions (int size, int expectedNumEntries){
-        return (int) Math.round(((size + 0.0)/expectedNumEntries)*Math.log(2));
+    static int getNumberOfFunctions (long size, long expectedNumEntries){
+        return (int) Math.max(1, Math.round(((size + 0.0)/expectedNumEntries)*Math.log(2)));
     }
 
     /**
@@ -85,7 +185,7 @@ public class BloomFilter <A> {
      * @param a - Element to verify
      * @return a collection of the corresponding elements
      */
-    private Stream<Integer> getIndices (A a) {
+    private Stream<Long> getIndices (A a) {
         return hashFunctions.stream().map(h -> h.apply(a));
     }
 
@@ -95,8 +195,13 @@ public class BloomFilter <A> {
      * @param a - Element to be added
      */
     public void add (A a) {
-        getIndices(a).forEach(idx -> bitArray.set(idx, true));
-        size ++;
+        if (doubleHashing) {
+            MurmurHash3.LongPair hashPair = hashElement(a);
+            addDoubleHashes(hashPair.val1, hashPair.val2);
+        } else {
+            getIndices(a).forEach(idx -> bitArray.set(idx, true));
+            size ++;
+        }
     }
 
     /**
@@ -106,17 +211,224 @@ public class BloomFilter <A> {
      * @return true if the element belongs to the set, false otherwise
      */
     public boolean contains (A a) {
+        if (doubleHashing) {
+            MurmurHash3.LongPair hashPair = hashElement(a);
+            return containsDoubleHashes(hashPair.val1, hashPair.val2);
+        }
         return getIndices(a).allMatch(bitArray::get);
     }
 
+    /**
+     * Adds an element encoded as a long (e.g. a 2-bit packed k-mer) to the bloom filter.
+     * Unlike add(A), no intermediate objects are created
+     * @param key - Encoded element to be added
+     */
+    @Override
+    public void add (long key) {
+        if (doubleHashing) {
+            addDoubleHashes(MurmurHash3.murmurhash3_x64_128_val1(key, 0), MurmurHash3.murmurhash3_x64_128_val2(key, 0));
+            return;
+        }
+        for (LongUnaryOperator h : longHashFunctions) {
+            bitArray.set(h.applyAsLong(key), true);
+        }
+        size ++;
+    }
+
+    /**
+     * Checks if an element encoded as a long (e.g. a 2-bit packed k-mer) belongs to
+     * the bloom filter, with an error rate of the given expectedError value. It can be called
+     * from several threads at the same time, as long as the filter isn't being modified
+     * @param key - Encoded element to verify
+     * @return true if the element belongs to the set, false otherwise
+     */
+    @Override
+    public boolean contains (long key) {
+        if (doubleHashing) {
+            return containsDoubleHashes(MurmurHash3.murmurhash3_x64_128_val1(key, 0), MurmurHash3.murmurhash3_x64_128_val2(key, 0));
+        }
+        for (LongUnaryOperator h : longHashFunctions) {
+            if (!bitArray.get(h.applyAsLong(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes an element with MurmurHash3 x64_128
+     * @param a - Element to hash
+     * @return the 128 bit hash
+     */
+    private MurmurHash3.LongPair hashElement (A a) {
+        byte[] bytes = a.toString().getBytes(StandardCharsets.UTF_8);
+        MurmurHash3.LongPair hashPair = new MurmurHash3.LongPair();
+        MurmurHash3.murmurhash3_x64_128(bytes, 0, bytes.length, 0, hashPair);
+        return hashPair;
+    }
+
+    /**
+     * Gets the index in the bit array of the i-th hash function from a 128 bit hash: h1 + i*h2
+     * @param h1 - first half of the hash of the element
+     * @param h2 - second half of the hash of the element
+     * @param i - index of the hash function
+     * @return the index in the bit array
+     */
+    private long getDoubleHashIndex (long h1, long h2, int i) {
+        long combined = h1 + i * h2;
+        return (combined >>> 1) % bitArray.getSize();
+    }
+
+    /**
+     * Sets the bits of an element from its 128 bit hash
+     * @param h1 - first half of the hash of the element
+     * @param h2 - second half of the hash of the element
+     */
+    private void addDoubleHashes (long h1, long h2) {
+        for (int i = 0; i < numFunctions; i++) {
+            bitArray.set(getDoubleHashIndex(h1, h2, i), true);
+        }
+        size ++;
+    }
+
+    /**
+     * Checks the bits of an element from its 128 bit hash
+     * @param h1 - first half of the hash of the element
+     * @param h2 - second half of the hash of the element
+     * @return true if all the bits are set
+     */
+    private boolean containsDoubleHashes (long h1, long h2) {
+        for (int i = 0; i < numFunctions; i++) {
+            if (!bitArray.get(getDoubleHashIndex(h1, h2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the index in the bit array of the i-th hash function, for an element
+     * that was already hashed (e.g. with a rolling hash)
+     * @param hash - hash of the element
+     * @param i - index of the hash function
+     * @return the index in the bit array
+     */
+    private long getHashIndex (long hash, int i) {
+        return (RollingHash.multiHash(hash, i) >>> 1) % bitArray.getSize();
+    }
+
+    /**
+     * Adds an element that was already hashed by the caller, for example with a rolling hash
+     * (see RollingHash). The indices of the hash functions are derived from the given hash.
+     * An element must always be added and checked with the same kind of hash
+     * @param hash - 64 bit hash of the element
+     */
+    @Override
+    public void addHash (long hash) {
+        for (int i = 0; i < numFunctions; i++) {
+            bitArray.set(getHashIndex(hash, i), true);
+        }
+        size ++;
+    }
+
+    /**
+     * Checks if an element that was already hashed by the caller belongs to the bloom filter
+     * @param hash - 64 bit hash of the element
+     * @return true if the element belongs to the set, false otherwise
+     */
+    @Override
+    public boolean containsHash (long hash) {
+        for (int i = 0; i < numFunctions; i++) {
+            if (!bitArray.get(getHashIndex(hash, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      *
      * @return number of elements in the bloom filter
      */
-    public int getSize () {
+    @Override
+    public long getSize () {
         return size;
     }
 
+    /**
+     * Estimates the current probability of false positives: (fraction of bits set)^numFunctions
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        return Math.pow(getFillRatio(), numFunctions);
+    }
+
+    /**
+     * @return the fraction of bits of the filter that are set
+     */
+    public double getFillRatio () {
+        return bitArray.getCardinality() / (double) bitArray.getSize();
+    }
+
+    /**
+     * @return number of hash functions
+     */
+    public int getNumFunctions () {
+        return numFunctions;
+    }
+
+    /**
+     * Checks if another filter hashes the elements to the same bits as this one: the same number
+     * of bits, of hash functions and the same hashing
+     * @param other - filter to compare
+     * @return true if both filters can be merged
+     */
+    public boolean hasSameParameters (BloomFilter<?> other) {
+        return bitArray.getSize() == other.bitArray.getSize()
+                && numFunctions == other.numFunctions
+                && doubleHashing == other.doubleHashing;
+    }
+
+    /**
+     * Adds all the elements of another filter with the same parameters to this one, with the
+     * bitwise OR of their bits. The number of elements becomes the sum of both, so the elements
+     * that were in both filters are counted twice
+     * @param other - filter to merge
+     */
+    public void merge (BloomFilter<?> other) {
+        if (!hasSameParameters(other)) {
+            throw new IllegalArgumentException("Only filters with the same number of bits and hash functions, and the same hashing, can be merged");
+        }
+        bitArray.or(other.bitArray);
+        size += other.size;
+    }
+
+    /**
+     * Creates an empty filter with the same parameters as this one, whose bits are kept in
+     * the same kind of storage (heap or off-heap)
+     * @return the new filter
+     */
+    BloomFilter<A> emptyCopy () {
+        long numBits = bitArray.getSize();
+        BitArray bits = bitArray instanceof OffHeapBitArray ? new OffHeapBitArray(numBits) : new BitArray(numBits);
+        return new BloomFilter<>(numFunctions, doubleHashing, bits, 0);
+    }
+
+    /**
+     * @return true if the elements are hashed with HashingMode.DOUBLE_HASHING
+     */
+    boolean isDoubleHashing () {
+        return doubleHashing;
+    }
+
+    /**
+     * @return the bits of the filter
+     */
+    BitArray getBitArray () {
+        return bitArray;
+    }
+
     public static void main(String[] args) {
         BloomFilter<String> bloomFilter = new BloomFilter<>(10, 0.01);
         bloomFilter.add("Sebastian");
@@ -0,0 +1,82 @@
+package dataStructures;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bit array that can be read and modified from many threads without locks.
+ * Each bit is set with a compare-and-set over the long that contains it
+ */
+public class ConcurrentBitArray {
+
+    /**
+     * Number of bits per position in array
+     */
+    private static final int BITS_IN_SEGMENT = 64;
+
+    /**
+     * Array of longs. Each long represents 64 bits
+     */
+    private final AtomicLongArray arr;
+
+    /**
+     * Size of the array; number of bits
+     */
+    private final long size;
+
+    public ConcurrentBitArray (long size) {
+        long segments = (size + BITS_IN_SEGMENT - 1) / BITS_IN_SEGMENT;
+        if (segments > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The array can't have more than " + Integer.MAX_VALUE + " segments. Bits: " + size);
+        }
+        this.size = size;
+        this.arr = new AtomicLongArray((int) segments);
+    }
+
+    /**
+     * Gets the bit at the requested position
+     * @param idx - requested index
+     * @return bit at position idx: true (1) or false (0)
+     */
+    public boolean get (long idx) {
+        long mask = 1L << idx;
+        return (arr.get((int) (idx / BITS_IN_SEGMENT)) & mask) != 0;
+    }
+
+    /**
+     * Sets the bit at the requested position to 1
+     * @param idx - requested index
+     * @return true if the bit was 0 before, false if it was already set
+     */
+    public boolean set (long idx) {
+        int segmentPos = (int) (idx / BITS_IN_SEGMENT);
+        long mask = 1L << idx;
+        long segment = arr.get(segmentPos);
+        while ((segment & mask) == 0) {
+            if (arr.compareAndSet(segmentPos, segment, segment | mask)) {
+                return true;
+            }
+            segment = arr.get(segmentPos);
+        }
+        return false;
+    }
+
+    /**
+     * Counts the bits that are set (1). If other threads are setting bits at the same
+     * time, the result is a lower bound of the final count
+     * @return number of bits set in the array
+     */
+    public long getCardinality () {
+        long count = 0;
+        for (int i = 0; i < arr.length(); i++) {
+            count += Long.bitCount(arr.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return the size in bits of the array
+     */
+    public long getSize () {
+        return size;
+    }
+}
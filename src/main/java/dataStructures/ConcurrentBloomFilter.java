@@ -0,0 +1,135 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+import hashing.RollingHash;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter of encoded k-mers that supports add, contains and addIfAbsent from
+ * many threads at the same time, without locks. The bits are kept in a ConcurrentBitArray
+ * and the indices are derived from a single MurmurHash3 x64_128 hash (h1 + i*h2).
+ * SequenceIO counts in parallel with a ShardedKmerTableBuilder, whose shards are owned by one
+ * thread each; this filter is for callers that share a single set among threads
+ */
+public class ConcurrentBloomFilter implements KmerSet {
+
+    /**
+     * The array used to indicate if an element belongs to the set of elements
+     */
+    private final ConcurrentBitArray bitArray;
+
+    /**
+     * Number of hash functions
+     */
+    private final int numFunctions;
+
+    /**
+     * Number of elements in the bloom filter. A LongAdder avoids the contention of
+     * a single counter updated by all the threads
+     */
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Bloom filter constructor given the expected number of elements to be added and
+     * the expected probability of false positives
+     * @param expectedNumEntries - Expected number of elements to be added
+     * @param expectedError - Expected probability of false positives
+     */
+    public ConcurrentBloomFilter (long expectedNumEntries, double expectedError) {
+        long bitArraySize = BloomFilter.getBitArraySize(expectedNumEntries, expectedError);
+        this.bitArray = new ConcurrentBitArray(bitArraySize);
+        this.numFunctions = BloomFilter.getNumberOfFunctions(bitArraySize, expectedNumEntries);
+    }
+
+    private long getIndex (long h1, long h2, int i) {
+        return ((h1 + i * h2) >>> 1) % bitArray.getSize();
+    }
+
+    /**
+     * Sets the bits of an element
+     * @return true if at least one bit was 0, i.e. the element was not in the filter
+     */
+    private boolean setBits (long h1, long h2) {
+        boolean changed = false;
+        for (int i = 0; i < numFunctions; i++) {
+            changed |= bitArray.set(getIndex(h1, h2, i));
+        }
+        return changed;
+    }
+
+    private boolean checkBits (long h1, long h2) {
+        for (int i = 0; i < numFunctions; i++) {
+            if (!bitArray.get(getIndex(h1, h2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add (long kmer) {
+        addIfAbsent(kmer);
+    }
+
+    @Override
+    public boolean contains (long kmer) {
+        return checkBits(MurmurHash3.murmurhash3_x64_128_val1(kmer, 0), MurmurHash3.murmurhash3_x64_128_val2(kmer, 0));
+    }
+
+    /**
+     * Adds an encoded k-mer to the filter, if it was not already there. Checking and adding
+     * happen in the same pass over the bits, so at most one thread gets true for each bit that
+     * was 0. The result is only approximate under contention: when several threads add the same
+     * new k-mer at the same time, each one can set a different bit and more than one gets true,
+     * so getSize can count the k-mer more than once
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer was not in the filter (it was added), false otherwise
+     */
+    @Override
+    public boolean addIfAbsent (long kmer) {
+        return countIfAdded(setBits(MurmurHash3.murmurhash3_x64_128_val1(kmer, 0), MurmurHash3.murmurhash3_x64_128_val2(kmer, 0)));
+    }
+
+    @Override
+    public void addHash (long hash) {
+        addHashIfAbsent(hash);
+    }
+
+    @Override
+    public boolean containsHash (long hash) {
+        return checkBits(hash, RollingHash.multiHash(hash, 1));
+    }
+
+    /**
+     * Adds an element that was already hashed by the caller, if it was not already there
+     * @param hash - 64 bit hash of the element
+     * @return true if the element was not in the filter (it was added), false otherwise
+     */
+    @Override
+    public boolean addHashIfAbsent (long hash) {
+        return countIfAdded(setBits(hash, RollingHash.multiHash(hash, 1)));
+    }
+
+    private boolean countIfAdded (boolean added) {
+        if (added) {
+            size.increment();
+        }
+        return added;
+    }
+
+    /**
+     * @return number of elements in the bloom filter. It's approximate when the same elements
+     * were added by several threads at the same time (see addIfAbsent)
+     */
+    @Override
+    public long getSize () {
+        return size.sum();
+    }
+
+    @Override
+    public double getFalsePositiveRate () {
+        double fillRatio = bitArray.getCardinality() / (double) bitArray.getSize();
+        return Math.pow(fillRatio, numFunctions);
+    }
+}
@@ -0,0 +1,273 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+/**
+ * Count-min sketch with conservative update: approximate frequencies of elements encoded as
+ * longs (e.g. encoded k-mers) in a fixed amount of memory. It has depth rows of width saturating
+ * counters; each element is hashed to one counter per row, and its frequency is estimated as the
+ * minimum of its counters. The estimates never fall below the true frequencies, and with probability
+ * confidence they are at most epsilon * N above them, where N is the number of elements added.
+ * Cormode G, Muthukrishnan S. An improved data stream summary: the count-min sketch and its
+ * applications. Journal of Algorithms 55(1), 2005.
+ *
+ * With conservative update, only the counters that are below the new estimate are incremented,
+ * which keeps the same guarantee with a much smaller error in practice.
+ * Estan C, Varghese G. New directions in traffic measurement and accounting. SIGCOMM 2002.
+ *
+ * The error actually made is measured on a sample of the elements (1 in 2^SAMPLE_BITS, chosen by
+ * hash), whose exact frequencies are also kept (see getMeasuredError).
+ */
+public class CountMinSketch {
+
+    /**
+     * Maximum width of a row (the maximum length of an array)
+     */
+    public static final int MAX_WIDTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * log2 of the fraction of the elements whose exact frequency is kept to measure the error
+     */
+    private static final int SAMPLE_BITS = 12;
+    private static final long SAMPLE_MASK = (1L << SAMPLE_BITS) - 1;
+
+    /**
+     * Salt of the hash that gives the step between the counters of an element
+     */
+    private static final long STEP_SALT = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Counters of the rows
+     */
+    private final short[][] rows;
+
+    private final int width;
+
+    /**
+     * Number of counters of each row that are not 0
+     */
+    private final long[] nonZeroCounters;
+
+    /**
+     * Exact frequencies of the sampled elements, by hash
+     */
+    private final KmerCountMap sample = new KmerCountMap();
+
+    /**
+     * Number of elements added
+     */
+    private long totalCount;
+
+    /**
+     * Reused to find the counters of an element
+     */
+    private final int[] indices;
+
+    /**
+     * Count-min sketch constructor given the error and the probability of staying within it
+     * @param epsilon - Maximum overestimate of a frequency, as a fraction of the number of elements added
+     * @param confidence - Probability that an estimate is within the error, between 0 and 1
+     */
+    public CountMinSketch (double epsilon, double confidence) {
+        this(getWidth(epsilon), getDepth(confidence));
+    }
+
+    /**
+     * @param width - Number of counters of each row, between 1 and MAX_WIDTH
+     * @param depth - Number of rows, at least 1
+     */
+    public CountMinSketch (int width, int depth) {
+        if (width <= 0 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("The width must be between 1 and " + MAX_WIDTH + ". Given: " + width);
+        }
+        if (depth <= 0) {
+            throw new IllegalArgumentException("The depth must be positive. Given: " + depth);
+        }
+        this.width = width;
+        this.rows = new short[depth][width];
+        this.nonZeroCounters = new long[depth];
+        this.indices = new int[depth];
+    }
+
+    /**
+     * Calculates the width of the rows that gives an error of epsilon: e / epsilon
+     * @param epsilon - Maximum overestimate, as a fraction of the number of elements added
+     * @return the width of the rows
+     */
+    public static int getWidth (double epsilon) {
+        if (epsilon <= 0 || epsilon >= 1) {
+            throw new IllegalArgumentException("The error must be between 0 and 1. Given: " + epsilon);
+        }
+        double width = Math.ceil(Math.E / epsilon);
+        if (width > MAX_WIDTH) {
+            throw new IllegalArgumentException("The error is too small: " + epsilon);
+        }
+        return (int) width;
+    }
+
+    /**
+     * Calculates the number of rows that gives the confidence: ln(1 / (1 - confidence))
+     * @param confidence - Probability that an estimate is within the error, between 0 and 1
+     * @return the number of rows
+     */
+    public static int getDepth (double confidence) {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("The confidence must be between 0 and 1. Given: " + confidence);
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(1 / (1 - confidence))));
+    }
+
+    /**
+     * Calculates the memory used by the counters of a sketch, e.g. to choose epsilon for a given budget
+     * @param epsilon - Maximum overestimate, as a fraction of the number of elements added
+     * @param confidence - Probability that an estimate is within the error
+     * @return the number of bytes of the counters
+     */
+    public static long getMemoryBytes (double epsilon, double confidence) {
+        return (long) getWidth(epsilon) * getDepth(confidence) * Short.BYTES;
+    }
+
+    /**
+     * Finds the counter of each row for a hash. The counters are chosen with double hashing,
+     * from the hash and a second hash derived from it
+     * @param hash - 64 bit hash of the element
+     * @return the step hash, whose low bits choose the sampled elements
+     */
+    private long findCounters (long hash) {
+        long step = MurmurHash3.fmix64(hash ^ STEP_SALT);
+        long combined = hash;
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (int) (((combined >>> 32) * width) >>> 32);
+            combined += step;
+        }
+        return step;
+    }
+
+    private short getMinimum () {
+        short min = Short.MAX_VALUE;
+        for (int i = 0; i < indices.length; i++) {
+            short counter = rows[i][indices[i]];
+            if (counter < min) {
+                min = counter;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Adds an element encoded as a long
+     * @param key - element to add
+     * @return the new estimated frequency of the element
+     */
+    public short add (long key) {
+        return addHash(MurmurHash3.fmix64(key));
+    }
+
+    /**
+     * Adds an element that was already hashed by the caller (e.g. with a rolling hash)
+     * @param hash - 64 bit hash of the element
+     * @return the new estimated frequency of the element
+     */
+    public short addHash (long hash) {
+        long step = findCounters(hash);
+        totalCount++;
+        short min = getMinimum();
+        if (min < Short.MAX_VALUE) {
+            short estimate = (short) (min + 1);
+            for (int i = 0; i < indices.length; i++) {
+                short[] row = rows[i];
+                short counter = row[indices[i]];
+                if (counter < estimate) {
+                    if (counter == 0) {
+                        nonZeroCounters[i]++;
+                    }
+                    row[indices[i]] = estimate;
+                }
+            }
+            min = estimate;
+        }
+        if ((step & SAMPLE_MASK) == 0) {
+            sample.increment(hash, (short) 1);
+        }
+        return min;
+    }
+
+    /**
+     * Estimates the frequency of an element encoded as a long
+     * @param key - element to query
+     * @return the estimated frequency, which is never below the true frequency
+     */
+    public short get (long key) {
+        return getHash(MurmurHash3.fmix64(key));
+    }
+
+    /**
+     * Estimates the frequency of an element that was already hashed by the caller
+     * @param hash - 64 bit hash of the element
+     * @return the estimated frequency, which is never below the true frequency
+     */
+    public short getHash (long hash) {
+        findCounters(hash);
+        return getMinimum();
+    }
+
+    /**
+     * @return the number of elements added
+     */
+    public long getTotalCount () {
+        return totalCount;
+    }
+
+    /**
+     * @return the number of counters of each row
+     */
+    public int getWidth () {
+        return width;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getDepth () {
+        return rows.length;
+    }
+
+    /**
+     * @return the memory used by the counters, in bytes
+     */
+    public long getMemoryBytes () {
+        return (long) width * rows.length * Short.BYTES;
+    }
+
+    /**
+     * Gets the maximum overestimate guaranteed with the confidence of the sketch: e * N / width
+     * @return the error bound, in number of occurrences
+     */
+    public double getErrorBound () {
+        return Math.E * totalCount / width;
+    }
+
+    /**
+     * Measures the error of the sketch on the sampled elements: the mean difference between
+     * their estimated and their exact frequencies
+     * @return the mean overestimate, in number of occurrences, or 0 if no element was sampled
+     */
+    public double getMeasuredError () {
+        double[] sum = {0};
+        sample.forEach((hash, count) -> sum[0] += getHash(hash) - count);
+        return sample.size() == 0 ? 0 : sum[0] / sample.size();
+    }
+
+    /**
+     * Estimates the probability that an element that was never added has a non 0 estimate:
+     * the probability that its counters are not 0 in all the rows
+     * @return the estimated false positive rate
+     */
+    public double getFalsePositiveRate () {
+        double rate = 1;
+        for (long nonZero : nonZeroCounters) {
+            rate *= nonZero / (double) width;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,608 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Counts encoded k-mers out of core, for inputs whose distinct k-mers don't fit in memory.
+ * - Pass one (add): each k-mer is appended to one of numBuckets bucket files, chosen by its hash,
+ *   through a buffer per bucket. A small HyperLogLog per bucket estimates its distinct k-mers.
+ *   Alternatively (addSuperKmer), whole super-k-mers (see SuperKmerIterator) are appended to the
+ *   bucket chosen by their minimizer: a k-mer always has the same minimizer, so all its copies
+ *   still end up in the same bucket, and a run of consecutive k-mers takes much less space than
+ *   its k-mers one by one.
+ * - Pass two (finish): the buckets that wouldn't fit in the memory budget are split again into
+ *   smaller buckets. Then the buckets are counted in parallel, each one with its own KmerCountMap,
+ *   and only as many at once as fit in the budget. Each bucket gives a file with its k-mers of
+ *   frequency greater than 1, sorted; the files are merged into a table in the binary format of
+ *   MappedKmerTable, which is opened as the result.
+ * The counts are exact (there is no bloom filter); like in KmerTable, the k-mers seen once are not kept.
+ *
+ * Usage:
+ *   counter.add(kmer); ...   (or counter.addSuperKmer(...); ...)
+ *   KmerTable table = counter.finish(outputFilePath);   (or counter.abort() if the input fails)
+ */
+public class DiskKmerCounter {
+
+    /**
+     * Limits of the size of the buffer of a bucket file
+     */
+    private static final int MIN_BUFFER_SIZE = 1 << 13;
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Buffer size used to read the bucket files and the sorted files
+     */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Precision of the HyperLogLog of each bucket (1 KB, around 3% of error)
+     */
+    private static final int SKETCH_PRECISION = 10;
+
+    /**
+     * Margin over the estimated distinct k-mers of a bucket, to cover the error of the sketch
+     */
+    private static final double DISTINCT_MARGIN = 1.1;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * Number of buckets into which a bucket that doesn't fit in memory is split
+     */
+    private static final int SPLIT_FACTOR = 16;
+
+    /**
+     * Units of memory of the budget semaphore: 1 KB
+     */
+    private static final int MEMORY_UNIT_SHIFT = 10;
+
+    /**
+     * Multiplier of the level in the hash that chooses the bucket of a record
+     */
+    private static final long LEVEL_SALT = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Length of the k-mers
+     */
+    private final int k;
+
+    /**
+     * If the k-mers are canonical (see KmerTable.isCanonical). The k-mers given to add must
+     * already be canonical; the ones of the super-k-mers are made canonical when counted
+     */
+    private final boolean canonical;
+
+    /**
+     * Directory of the temporary files
+     */
+    private final File workDirectory;
+
+    /**
+     * Maximum number of bytes used by the buffers and by the buckets being counted
+     */
+    private final long memoryBudget;
+
+    /**
+     * Number of buckets counted at the same time (at most)
+     */
+    private final int numThreads;
+
+    /**
+     * Size of the buffer of each bucket file
+     */
+    private final int bufferSize;
+
+    /**
+     * Buckets of the first pass
+     */
+    private final Partition partition;
+
+    /**
+     * Which of add and addSuperKmer has been used. They can't be mixed: a k-mer given alone and
+     * the same k-mer in a super-k-mer could go to different buckets
+     */
+    private boolean hasKmers;
+    private boolean hasSuperKmers;
+
+    /**
+     * Record of a bucket file: a single k-mer, or a super-k-mer. Written as
+     * - byte 0, long k-mer
+     * - byte n (the number of k-mers), long minimizer, long head, n - 1 bases of the tail
+     *   (2 bits per base, in the fewest bytes)
+     */
+    private final class Record {
+        int numKmers;
+        long routingKey;
+        long head;
+        long tail;
+
+        /**
+         * @return if the record is a super-k-mer, whose bucket is chosen by its minimizer
+         */
+        boolean isSuperKmer () {
+            return numKmers > 0;
+        }
+
+        /**
+         * @return the i-th k-mer of the record, in the form it's counted
+         */
+        long getKmer (int i) {
+            if (!isSuperKmer()) {
+                return routingKey;
+            }
+            long kmer = SuperKmerIterator.getKmer(head, tail, numKmers, i, k);
+            return canonical ? KmerEncoder.canonical(kmer, k) : kmer;
+        }
+
+        int getKmerCount () {
+            return isSuperKmer() ? numKmers : 1;
+        }
+
+        void read (DataInputStream in) throws IOException {
+            numKmers = in.readUnsignedByte();
+            routingKey = in.readLong();
+            if (isSuperKmer()) {
+                head = in.readLong();
+                tail = 0;
+                for (int i = 0; i < getTailBytes(numKmers); i++) {
+                    tail = (tail << 8) | in.readUnsignedByte();
+                }
+            }
+        }
+    }
+
+    private static int getTailBytes (int numKmers) {
+        return (2 * (numKmers - 1) + 7) / 8;
+    }
+
+    /**
+     * Bucket file with its number of records and k-mers, and the sketch of its distinct k-mers
+     */
+    private static final class Bucket {
+        final File file;
+        final int level;
+        final long numRecords;
+        final long numKmers;
+        final HyperLogLog sketch;
+
+        Bucket (File file, int level, long numRecords, long numKmers, HyperLogLog sketch) {
+            this.file = file;
+            this.level = level;
+            this.numRecords = numRecords;
+            this.numKmers = numKmers;
+            this.sketch = sketch;
+        }
+
+        /**
+         * @return an upper estimate of the number of distinct k-mers of the bucket
+         */
+        int getExpectedDistinct () {
+            return (int) Math.min(Integer.MAX_VALUE, Math.min(numKmers, (long) (sketch.estimate() * DISTINCT_MARGIN) + 1));
+        }
+
+        /**
+         * @return the estimated memory needed to count the bucket: the count map, and the
+         * array where its k-mers are sorted
+         */
+        long getMemoryBytes () {
+            int distinct = getExpectedDistinct();
+            return KmerCountMap.getMemoryBytes(distinct, LOAD_FACTOR) + (long) distinct * Long.BYTES;
+        }
+    }
+
+    /**
+     * Set of bucket files that receive records. The bucket of a record depends on the level of
+     * the partition, so the records of a bucket are spread when it's split
+     */
+    private final class Partition {
+        final int level;
+        final File[] files;
+        final DataOutputStream[] outputs;
+        final HyperLogLog[] sketches;
+        final long[] numRecords;
+        final long[] numKmers;
+
+        Partition (String name, int level, int numBuckets) throws IOException {
+            this.level = level;
+            this.files = new File[numBuckets];
+            this.outputs = new DataOutputStream[numBuckets];
+            this.sketches = new HyperLogLog[numBuckets];
+            this.numRecords = new long[numBuckets];
+            this.numKmers = new long[numBuckets];
+            for (int i = 0; i < numBuckets; i++) {
+                files[i] = File.createTempFile(name + "-" + i + "-", ".kmers", workDirectory);
+                outputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), bufferSize));
+                sketches[i] = new HyperLogLog(SKETCH_PRECISION);
+            }
+        }
+
+        private long hash (long routingKey) {
+            return MurmurHash3.fmix64(routingKey + level * LEVEL_SALT);
+        }
+
+        private int getBucket (long hash) {
+            return (int) (((hash >>> 32) * files.length) >>> 32);
+        }
+
+        void add (long kmer) throws IOException {
+            long hash = hash(kmer);
+            int bucket = getBucket(hash);
+            DataOutputStream out = outputs[bucket];
+            out.writeByte(0);
+            out.writeLong(kmer);
+            // The low bits of the hash are independent from the bucket
+            sketches[bucket].addHash(Long.reverse(hash));
+            numRecords[bucket]++;
+            numKmers[bucket]++;
+        }
+
+        void add (Record record) throws IOException {
+            if (!record.isSuperKmer()) {
+                add(record.routingKey);
+                return;
+            }
+            int bucket = getBucket(hash(record.routingKey));
+            DataOutputStream out = outputs[bucket];
+            out.writeByte(record.numKmers);
+            out.writeLong(record.routingKey);
+            out.writeLong(record.head);
+            for (int i = getTailBytes(record.numKmers) - 1; i >= 0; i--) {
+                out.writeByte((int) (record.tail >>> (8 * i)));
+            }
+            for (int i = 0; i < record.numKmers; i++) {
+                sketches[bucket].add(record.getKmer(i));
+            }
+            numRecords[bucket]++;
+            numKmers[bucket] += record.numKmers;
+        }
+
+        /**
+         * Closes the bucket files
+         * @return the buckets with k-mers. The empty files are deleted
+         */
+        List<Bucket> close () throws IOException {
+            List<Bucket> buckets = new ArrayList<>();
+            for (int i = 0; i < files.length; i++) {
+                outputs[i].close();
+                if (numRecords[i] == 0) {
+                    files[i].delete();
+                } else {
+                    buckets.add(new Bucket(files[i], level, numRecords[i], numKmers[i], sketches[i]));
+                }
+            }
+            return buckets;
+        }
+
+        /**
+         * Closes the bucket files, ignoring their errors, and deletes them
+         */
+        void discard () {
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    outputs[i].close();
+                } catch (IOException ignored) {
+                    // the file is deleted anyway
+                }
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param canonical - if the k-mers given are canonical (see KmerEncoder.canonical)
+     * @param workDirectory - directory of the temporary files
+     * @param numBuckets - number of bucket files of the first pass
+     * @param memoryBudget - maximum number of bytes used by the buffers of the bucket files and
+     *                     by the buckets being counted
+     * @param numThreads - maximum number of buckets counted at the same time
+     * @throws IOException if the bucket files can't be created
+     */
+    public DiskKmerCounter (int k, boolean canonical, String workDirectory, int numBuckets, long memoryBudget, int numThreads) throws IOException {
+        if (!KmerEncoder.isEncodable(k)) {
+            throw new IllegalArgumentException("Only k-mers of length 1 to " + KmerEncoder.MAX_K + " can be encoded. k = " + k);
+        }
+        if (numBuckets <= 0 || numThreads <= 0) {
+            throw new IllegalArgumentException("The number of buckets and threads must be positive. Given: " + numBuckets + ", " + numThreads);
+        }
+        long maxBufferSize = memoryBudget / 2 / Math.max(numBuckets, SPLIT_FACTOR);
+        if (maxBufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The memory budget is too small for " + numBuckets + " buckets: " + memoryBudget);
+        }
+        this.k = k;
+        this.canonical = canonical;
+        this.workDirectory = new File(workDirectory);
+        this.memoryBudget = memoryBudget;
+        this.numThreads = numThreads;
+        this.bufferSize = (int) Math.min(MAX_BUFFER_SIZE, maxBufferSize);
+        this.partition = new Partition("bucket", 0, numBuckets);
+    }
+
+    /**
+     * Adds an encoded k-mer. Only one thread can add k-mers
+     * @param kmer - encoded k-mer
+     * @throws IOException if a bucket file can't be written
+     */
+    public void add (long kmer) throws IOException {
+        if (hasSuperKmers) {
+            throw new IllegalStateException("K-mers can't be added after super-k-mers");
+        }
+        hasKmers = true;
+        partition.add(kmer);
+    }
+
+    /**
+     * Adds the k-mers of a super-k-mer (see SuperKmerIterator), to the bucket chosen by its
+     * minimizer. Only one thread can add super-k-mers
+     * @param minimizer - minimizer of the super-k-mer. It must be computed the same way for all
+     *                  the super-k-mers (same m, order and canonical setting)
+     * @param head - first k-mer
+     * @param tail - bases that follow the first k-mer
+     * @param numKmers - number of k-mers, between 1 and SuperKmerIterator.MAX_KMERS
+     * @throws IOException if a bucket file can't be written
+     */
+    public void addSuperKmer (long minimizer, long head, long tail, int numKmers) throws IOException {
+        if (hasKmers) {
+            throw new IllegalStateException("Super-k-mers can't be added after k-mers");
+        }
+        if (numKmers <= 0 || numKmers > SuperKmerIterator.MAX_KMERS) {
+            throw new IllegalArgumentException("A super-k-mer has 1 to " + SuperKmerIterator.MAX_KMERS + " k-mers. Given: " + numKmers);
+        }
+        hasSuperKmers = true;
+        Record record = new Record();
+        record.numKmers = numKmers;
+        record.routingKey = minimizer;
+        record.head = head;
+        record.tail = tail;
+        partition.add(record);
+    }
+
+    /**
+     * Adds the current super-k-mer of an iterator (see addSuperKmer)
+     * @param superKmers - iterator positioned on a super-k-mer
+     * @throws IOException if a bucket file can't be written
+     */
+    public void add (SuperKmerIterator superKmers) throws IOException {
+        if (superKmers.getK() != k) {
+            throw new IllegalArgumentException("The super-k-mers must have k = " + k + ". Given: " + superKmers.getK());
+        }
+        addSuperKmer(superKmers.getMinimizer(), superKmers.getHead(), superKmers.getTail(), superKmers.getNumKmers());
+    }
+
+    /**
+     * Abandons the counting before finish, e.g. after an error of the input: the bucket files
+     * are closed and deleted. It does nothing if finish was already called
+     */
+    public void abort () {
+        partition.discard();
+    }
+
+    /**
+     * Counts the k-mers of the buckets and writes the table. The temporary files are deleted
+     * @param outputFilePath - path of the table, in the binary format of MappedKmerTable
+     * @return the table, opened with KmerTable.open
+     * @throws IOException if the files can't be read or written
+     */
+    public KmerTable finish (String outputFilePath) throws IOException {
+        List<Bucket> buckets = new ArrayList<>();
+        for (Bucket bucket : partition.close()) {
+            split(bucket, buckets, false);
+        }
+
+        List<File> sortedFiles = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "kmer-bucket-counter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int memoryUnits = getMemoryUnits(memoryBudget);
+            Semaphore memory = new Semaphore(memoryUnits);
+            List<Future<File>> results = new ArrayList<>();
+            for (Bucket bucket : buckets) {
+                results.add(pool.submit(() -> {
+                    int units = Math.min(memoryUnits, getMemoryUnits(bucket.getMemoryBytes()));
+                    memory.acquire(units);
+                    try {
+                        return count(bucket);
+                    } finally {
+                        memory.release(units);
+                    }
+                }));
+            }
+            for (Future<File> result : results) {
+                sortedFiles.add(result.get());
+            }
+            merge(sortedFiles, outputFilePath);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting the buckets", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while counting a bucket", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (Bucket bucket : buckets) {
+                bucket.file.delete();
+            }
+            for (File file : sortedFiles) {
+                file.delete();
+            }
+        }
+        return KmerTable.open(outputFilePath);
+    }
+
+    private static int getMemoryUnits (long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes >>> MEMORY_UNIT_SHIFT));
+    }
+
+    /**
+     * Splits a bucket until its parts can be counted within the memory budget
+     * @param bucket - bucket to split
+     * @param buckets - list where the buckets that fit are added
+     * @param expand - if the super-k-mers are split into their k-mers, so the parts are chosen
+     *               by k-mer instead of by minimizer
+     * @throws IOException if the files can't be read or written
+     */
+    private void split (Bucket bucket, List<Bucket> buckets, boolean expand) throws IOException {
+        if (bucket.getMemoryBytes() <= memoryBudget) {
+            buckets.add(bucket);
+            return;
+        }
+        Partition parts = new Partition("split", bucket.level + 1, SPLIT_FACTOR);
+        Record record = new Record();
+        try (DataInputStream in = openBucket(bucket.file)) {
+            for (long i = 0; i < bucket.numRecords; i++) {
+                record.read(in);
+                if (expand) {
+                    for (int j = 0; j < record.getKmerCount(); j++) {
+                        parts.add(record.getKmer(j));
+                    }
+                } else {
+                    parts.add(record);
+                }
+            }
+        }
+        bucket.file.delete();
+        for (Bucket part : parts.close()) {
+            if (part.numKmers < bucket.numKmers) {
+                split(part, buckets, false);
+            } else if (!expand) {
+                // All the records have the same routing key (e.g. the same minimizer): they are
+                // split by k-mer instead
+                split(part, buckets, true);
+            } else {
+                // All the k-mers went to the same part: it can't be split any further
+                buckets.add(part);
+            }
+        }
+    }
+
+    private DataInputStream openBucket (File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+    }
+
+    /**
+     * Counts the k-mers of a bucket, and writes the ones with frequency greater than 1
+     * in increasing (unsigned) order
+     * @param bucket - bucket to count
+     * @return the file with the sorted k-mers and their frequencies
+     * @throws IOException if the files can't be read or written
+     */
+    private File count (Bucket bucket) throws IOException {
+        KmerCountMap counts = new KmerCountMap(bucket.getExpectedDistinct(), LOAD_FACTOR);
+        Record record = new Record();
+        try (DataInputStream in = openBucket(bucket.file)) {
+            for (long i = 0; i < bucket.numRecords; i++) {
+                record.read(in);
+                for (int j = 0; j < record.getKmerCount(); j++) {
+                    counts.increment(record.getKmer(j), (short) 1);
+                }
+            }
+        }
+        bucket.file.delete();
+
+        // The sign bit is flipped so that the signed sort gives the unsigned order
+        long[] keys = new long[counts.size()];
+        int[] numKeys = {0};
+        counts.forEach((key, count) -> {
+            if (count > 1) {
+                keys[numKeys[0]++] = key ^ Long.MIN_VALUE;
+            }
+        });
+        Arrays.sort(keys, 0, numKeys[0]);
+
+        File sortedFile = File.createTempFile("sorted-", ".kmers", workDirectory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sortedFile), READ_BUFFER_SIZE))) {
+            out.writeLong(numKeys[0]);
+            for (int i = 0; i < numKeys[0]; i++) {
+                long key = keys[i] ^ Long.MIN_VALUE;
+                out.writeLong(key);
+                out.writeShort(counts.get(key));
+            }
+        }
+        return sortedFile;
+    }
+
+    /**
+     * Reader of a file of sorted k-mers
+     */
+    private static final class SortedFileReader {
+        final DataInputStream in;
+        long remaining;
+        long kmer;
+        short count;
+
+        SortedFileReader (DataInputStream in) throws IOException {
+            this.in = in;
+            this.remaining = in.readLong();
+        }
+
+        /**
+         * Reads the next entry
+         * @return false if the file ended
+         */
+        boolean next () throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            kmer = in.readLong();
+            count = in.readShort();
+            return true;
+        }
+    }
+
+    /**
+     * Merges the files of sorted k-mers into a table. The buckets don't share k-mers,
+     * so each k-mer comes from a single file
+     * @param sortedFiles - files of sorted k-mers
+     * @param outputFilePath - path of the table
+     * @throws IOException if the files can't be read or written
+     */
+    private void merge (List<File> sortedFiles, String outputFilePath) throws IOException {
+        PriorityQueue<SortedFileReader> queue = new PriorityQueue<>(
+                Math.max(1, sortedFiles.size()),
+                Comparator.comparingLong((SortedFileReader reader) -> reader.kmer ^ Long.MIN_VALUE)
+        );
+        List<SortedFileReader> readers = new ArrayList<>();
+        try (MappedKmerTable.Writer writer = new MappedKmerTable.Writer(outputFilePath, k, canonical)) {
+            for (File file : sortedFiles) {
+                SortedFileReader reader = new SortedFileReader(openBucket(file));
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                SortedFileReader reader = queue.poll();
+                writer.add(reader.kmer, reader.count);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (SortedFileReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+}
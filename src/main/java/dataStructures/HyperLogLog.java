@@ -0,0 +1,121 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+/**
+ * HyperLogLog sketch: estimates the number of distinct elements of a stream using
+ * 2^precision registers of one byte, with a relative error of about 1.04 / sqrt(2^precision).
+ * Flajolet P, Fusy E, Gandouet O, Meunier F. HyperLogLog: the analysis of a near-optimal
+ * cardinality estimation algorithm. AofA 2007.
+ *
+ * Each element is hashed to 64 bits: the first precision bits choose a register, and the
+ * register keeps the maximum position of the first 1 bit among the remaining bits.
+ * The hashes are 64 bits long, so no correction for large cardinalities is needed.
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 14;
+
+    /**
+     * Number of bits of the hash used to choose the register
+     */
+    private final int precision;
+
+    /**
+     * Maximum position of the first 1 bit seen by each register
+     */
+    private final byte[] registers;
+
+    public HyperLogLog () {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision - log2 of the number of registers, between MIN_PRECISION and MAX_PRECISION
+     */
+    public HyperLogLog (int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("The precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ". Given: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds an element encoded as a long (e.g. an encoded k-mer)
+     * @param key - element to add
+     */
+    public void add (long key) {
+        addHash(MurmurHash3.fmix64(key));
+    }
+
+    /**
+     * Adds an element that was already hashed by the caller. The 64 bits of the
+     * hash must be uniformly distributed
+     * @param hash - 64 bit hash of the element
+     */
+    public void addHash (long hash) {
+        int register = (int) (hash >>> (Long.SIZE - precision));
+        long remaining = hash << precision;
+        int rank = remaining == 0
+                ? Long.SIZE - precision + 1
+                : Long.numberOfLeadingZeros(remaining) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds all the elements of another sketch with the same precision to this one
+     * @param other - sketch to merge
+     */
+    public void merge (HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Only sketches with the same precision can be merged. " + precision + " != " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Estimates the number of distinct elements added. For small cardinalities, when some
+     * registers are still empty, linear counting over the empty registers is used instead
+     * @return the estimated number of distinct elements
+     */
+    public long estimate () {
+        int m = registers.length;
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                emptyRegisters++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && emptyRegisters > 0) {
+            estimate = m * Math.log(m / (double) emptyRegisters);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return the expected relative error (standard deviation) of the estimates
+     */
+    public double getRelativeError () {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * @return log2 of the number of registers
+     */
+    public int getPrecision () {
+        return precision;
+    }
+}
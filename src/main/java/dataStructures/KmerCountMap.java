@@ -0,0 +1,244 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+/**
+ * Hash table from encoded k-mers (long) to frequencies (short), with open addressing
+ * and linear probing. Keys and counts are kept in two primitive arrays, so an entry costs
+ * 10 bytes divided by the load factor, and no object is created per entry or per update.
+ * A slot is empty when its count is 0, so every key (including 0) can be stored.
+ * Counts saturate at Short.MAX_VALUE.
+ */
+public class KmerCountMap {
+
+    /**
+     * Default values of the constructor parameters
+     */
+    private static final int DEFAULT_EXPECTED_SIZE = 1024;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * Maximum capacity of the arrays (a power of 2)
+     */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Consumer of the entries of the map
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept (long key, short count);
+    }
+
+    /**
+     * Maximum fraction of occupied slots before the arrays are resized
+     */
+    private final float loadFactor;
+
+    /**
+     * Keys of the map. Only meaningful in the slots where counts is not 0
+     */
+    private long[] keys;
+
+    /**
+     * Counts of the map. 0 means that the slot is empty
+     */
+    private short[] counts;
+
+    /**
+     * Number of entries in the map
+     */
+    private int size;
+
+    /**
+     * Number of entries after which the arrays are resized
+     */
+    private int threshold;
+
+    public KmerCountMap () {
+        this(DEFAULT_EXPECTED_SIZE, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param expectedSize - Expected number of entries. The map grows if it's exceeded
+     * @param loadFactor - Maximum fraction of occupied slots, between 0 and 1
+     */
+    public KmerCountMap (int expectedSize, float loadFactor) {
+        if (loadFactor <= 0 || loadFactor >= 1) {
+            throw new IllegalArgumentException("The load factor must be between 0 and 1. Given: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        allocate(getCapacity(expectedSize, loadFactor));
+    }
+
+    /**
+     * Calculates the smallest power of 2 capacity that can hold the expected number of entries
+     * @param expectedSize - Expected number of entries
+     * @param loadFactor - Maximum fraction of occupied slots
+     * @return the capacity
+     */
+    private static int getCapacity (int expectedSize, float loadFactor) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / (double) loadFactor);
+        if (needed > MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Math.max(2, Integer.highestOneBit((int) needed - 1) << 1);
+    }
+
+    /**
+     * Estimates the memory used by the arrays of a map
+     * @param expectedSize - Expected number of entries
+     * @param loadFactor - Maximum fraction of occupied slots
+     * @return the number of bytes of the arrays
+     */
+    static long getMemoryBytes (int expectedSize, float loadFactor) {
+        return (long) getCapacity(expectedSize, loadFactor) * (Long.BYTES + Short.BYTES);
+    }
+
+    private void allocate (int capacity) {
+        this.keys = new long[capacity];
+        this.counts = new short[capacity];
+        this.threshold = (int) Math.min(capacity * (double) loadFactor, capacity - 1);
+    }
+
+    /**
+     * Finds the slot of a key: the slot where it's stored or the empty slot where it
+     * should be inserted
+     * @param key - key to find
+     * @return the slot index
+     */
+    private int findSlot (long key) {
+        int mask = keys.length - 1;
+        int slot = (int) MurmurHash3.fmix64(key) & mask;
+        while (counts[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the count of a key
+     * @param key - encoded k-mer
+     * @return the count of the key, or 0 if it's not in the map
+     */
+    public short get (long key) {
+        return counts[findSlot(key)];
+    }
+
+    /**
+     * @param key - encoded k-mer
+     * @return true if the key is in the map
+     */
+    public boolean containsKey (long key) {
+        return get(key) != 0;
+    }
+
+    /**
+     * Sets the count of a key
+     * @param key - encoded k-mer
+     * @param count - count of the key. It must be positive
+     */
+    public void put (long key, short count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("The count must be positive. Given: " + count);
+        }
+        int slot = findSlot(key);
+        if (counts[slot] == 0) {
+            insert(slot, key, count);
+        } else {
+            counts[slot] = count;
+        }
+    }
+
+    /**
+     * Increments by 1 the count of a key. If the key is not in the map, it's added
+     * with the given initial count
+     * @param key - encoded k-mer
+     * @param initialCount - count of the key if it's not in the map. It must be positive
+     * @return the new count of the key
+     */
+    public short increment (long key, short initialCount) {
+        int slot = findSlot(key);
+        short count = counts[slot];
+        if (count == 0) {
+            insert(slot, key, initialCount);
+            return initialCount;
+        }
+        if (count < Short.MAX_VALUE) {
+            counts[slot] = ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Stores a key that is not in the map. The arrays are resized before the key is written,
+     * so if the map is full it's left unchanged
+     * @param slot - empty slot of the key, found before the resize
+     */
+    private void insert (int slot, long key, short count) {
+        if (size + 1 > threshold) {
+            resize();
+            slot = findSlot(key);
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        size ++;
+    }
+
+    /**
+     * Doubles the capacity of the arrays, inserting again all the entries. At the maximum capacity
+     * at least one slot is kept empty, so that findSlot ends for the keys that are not in the map
+     */
+    private void resize () {
+        if (keys.length >= MAX_CAPACITY) {
+            if (size + 1 >= keys.length) {
+                throw new IllegalStateException("The map is full. Size: " + size);
+            }
+            threshold = keys.length - 1;
+            return;
+        }
+        long[] oldKeys = keys;
+        short[] oldCounts = counts;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Applies the consumer to all the entries of the map, in no particular order
+     * @param consumer - consumer of the entries
+     */
+    public void forEach (EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return number of entries in the map
+     */
+    public int size () {
+        return size;
+    }
+
+    /**
+     * @return number of slots of the arrays
+     */
+    public int getCapacity () {
+        return keys.length;
+    }
+
+    /**
+     * @return maximum fraction of occupied slots
+     */
+    public float getLoadFactor () {
+        return loadFactor;
+    }
+}
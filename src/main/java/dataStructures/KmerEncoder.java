@@ -0,0 +1,134 @@
+package dataStructures;
+
+public final class KmerEncoder {
+
+    /**
+     * Maximum length of a k-mer that can be packed in a long,
+     * using 2 bits per base
+     */
+    public static final int MAX_K = 32;
+
+    /**
+     * Bases indexed by their 2-bit code
+     */
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * 2-bit code of each ASCII character. Characters that are not
+     * a valid base (A, C, G, T in upper or lower case) map to -1
+     */
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        for (int i = 0; i < CODES.length; i++) {
+            CODES[i] = -1;
+        }
+        for (byte code = 0; code < BASES.length; code++) {
+            CODES[BASES[code]] = code;
+            CODES[Character.toLowerCase(BASES[code])] = code;
+        }
+    }
+
+    private KmerEncoder () {}
+
+    /**
+     * Checks if k-mers of length k can be encoded in a long
+     * @param k - length of the k-mers
+     * @return true if 1 <= k <= MAX_K, false otherwise
+     */
+    public static boolean isEncodable (int k) {
+        return k > 0 && k <= MAX_K;
+    }
+
+    /**
+     * Gets the 2-bit code of a base: A = 0, C = 1, G = 2, T = 3
+     * @param base - base to encode
+     * @return the code of the base, or -1 if it's not A, C, G or T
+     */
+    public static int encodeBase (char base) {
+        return base < CODES.length ? CODES[base] : -1;
+    }
+
+    /**
+     * Gets the base that corresponds to a 2-bit code
+     * @param code - code of the base (0 to 3)
+     * @return the base
+     */
+    public static char decodeBase (int code) {
+        return BASES[code & 3];
+    }
+
+    /**
+     * Mask that keeps the 2k lower bits of a long, which are the ones
+     * used by an encoded k-mer
+     * @param k - length of the k-mers
+     * @return the mask
+     */
+    public static long getMask (int k) {
+        return k == MAX_K ? -1L : (1L << (2 * k)) - 1;
+    }
+
+    /**
+     * Encodes a k-mer as a long, using 2 bits per base. The first base
+     * of the k-mer occupies the most significant bits
+     * @param kmer - k-mer to encode
+     * @return the encoded k-mer
+     */
+    public static long encode (CharSequence kmer) {
+        int k = kmer.length();
+        if (!isEncodable(k)) {
+            throw new IllegalArgumentException("Only k-mers of length 1 to " + MAX_K + " can be encoded. Length: " + k);
+        }
+
+        long encoded = 0;
+        for (int i = 0; i < k; i++) {
+            int code = encodeBase(kmer.charAt(i));
+            if (code < 0) {
+                throw new IllegalArgumentException("Invalid base '" + kmer.charAt(i) + "' in k-mer: " + kmer);
+            }
+            encoded = (encoded << 2) | code;
+        }
+        return encoded;
+    }
+
+    /**
+     * Gets the reverse complement of an encoded k-mer: the k-mer of the opposite strand,
+     * read in the reverse direction. The complement of a code is 3 - code (A-T, C-G)
+     * @param kmer - encoded k-mer
+     * @param k - length of the k-mer
+     * @return the encoded reverse complement
+     */
+    public static long reverseComplement (long kmer, int k) {
+        long x = ~kmer;
+        x = ((x >>> 2) & 0x3333333333333333L) | ((x & 0x3333333333333333L) << 2);
+        x = ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((x & 0x0F0F0F0F0F0F0F0FL) << 4);
+        return Long.reverseBytes(x) >>> (2 * (MAX_K - k));
+    }
+
+    /**
+     * Gets the canonical form of an encoded k-mer: the smallest (in lexicographic order) between
+     * the k-mer and its reverse complement, so both strands of a sequence give the same k-mer
+     * @param kmer - encoded k-mer
+     * @param k - length of the k-mer
+     * @return the encoded canonical k-mer
+     */
+    public static long canonical (long kmer, int k) {
+        long reverse = reverseComplement(kmer, k);
+        return Long.compareUnsigned(kmer, reverse) <= 0 ? kmer : reverse;
+    }
+
+    /**
+     * Decodes a k-mer encoded with the encode method
+     * @param kmer - encoded k-mer
+     * @param k - length of the k-mer
+     * @return the k-mer as a String
+     */
+    public static String decode (long kmer, int k) {
+        char[] bases = new char[k];
+        for (int i = k - 1; i >= 0; i--) {
+            bases[i] = decodeBase((int) kmer);
+            kmer >>>= 2;
+        }
+        return new String(bases);
+    }
+}
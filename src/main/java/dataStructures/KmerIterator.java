@@ -0,0 +1,358 @@
+package dataStructures;
+
+import hashing.RollingHash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Slides a window of length k along a sequence and gives the encoded k-mer
+ * (see KmerEncoder) of each position. Each step updates the k-mer with a shift
+ * and a mask, so no object is created per k-mer. Windows that contain
+ * a character other than A, C, G or T are skipped.
+ * Optionally, it also keeps the rolling hash (see RollingHash) of the current window.
+ * In canonical mode, the reverse complement of the window (and its hash) is updated along with
+ * the window, and the smallest of both strands is given (see KmerEncoder.canonical).
+ * The bases can be read from a CharSequence or directly from the bytes of a ByteBuffer
+ * (e.g. a MappedSequence); in the latter case line breaks are skipped without breaking the window.
+ * Optionally, bases whose Phred quality (the score of FASTQ) is below a minimum are treated like
+ * invalid bases, so the windows that contain them are skipped too. The check is done once per base
+ * as the window slides, not once per k-mer.
+ *
+ * Usage:
+ *   iterator.reset(characters);
+ *   while (iterator.next()) { ... iterator.getKmer() ... }
+ */
+public class KmerIterator {
+
+    /**
+     * Offset of the quality characters of FASTQ (Phred+33, e.g. Illumina 1.8+)
+     */
+    public static final int PHRED_OFFSET = 33;
+
+    /**
+     * Maximum Phred quality that can be written in FASTQ ('~')
+     */
+    public static final int MAX_QUALITY = 93;
+
+    /**
+     * Length of the k-mers
+     */
+    private final int k;
+
+    /**
+     * Mask used to keep only the bases of the current window
+     */
+    private final long mask;
+
+    /**
+     * Rolling hash of the windows. Null if the hashes are not calculated
+     */
+    private final RollingHash rollingHash;
+
+    /**
+     * Sequence being processed, when it's read from a CharSequence
+     */
+    private CharSequence characters;
+
+    /**
+     * Sequence being processed, when it's read from a ByteBuffer
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Index of the next character (or byte) to be read
+     */
+    private int position;
+
+    /**
+     * Index after the last character (or byte) of the sequence
+     */
+    private int end;
+
+    /**
+     * Number of bases read from the start of the sequence, without line breaks
+     */
+    private int basesRead;
+
+    /**
+     * Number of consecutive valid bases read until the current position
+     */
+    private int validBases;
+
+    /**
+     * Current encoded k-mer
+     */
+    private long kmer;
+
+    /**
+     * Rolling hash of the current k-mer
+     */
+    private long hash;
+
+    /**
+     * If true, the canonical k-mers are given instead of the k-mers of the sequence
+     */
+    private final boolean canonical;
+
+    /**
+     * Shift of the first base of a k-mer: 2 * (k - 1)
+     */
+    private final int firstBaseShift;
+
+    /**
+     * Reverse complement of the current window, and its rolling hash. Only kept in canonical mode
+     */
+    private long reverseKmer;
+    private long reverseHash;
+
+    /**
+     * Lowest quality character accepted: PHRED_OFFSET plus the minimum quality. 0 if the qualities
+     * are not checked
+     */
+    private final int minQualityChar;
+
+    /**
+     * Qualities of the sequence being processed, read from a CharSequence or from the bytes of
+     * a buffer. Bases after the last quality are not checked
+     */
+    private CharSequence scores;
+    private ByteBuffer scoreBuffer;
+    private int scoreOffset;
+    private int scoreLength;
+
+    public KmerIterator (int k) {
+        this(k, false);
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param rollingHash - if true, the rolling hash of each k-mer is calculated (see getHash)
+     */
+    public KmerIterator (int k, boolean rollingHash) {
+        this(k, rollingHash, false);
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param rollingHash - if true, the rolling hash of each k-mer is calculated (see getHash)
+     * @param canonical - if true, the canonical k-mer of each window is given (see KmerEncoder.canonical)
+     */
+    public KmerIterator (int k, boolean rollingHash, boolean canonical) {
+        this(k, rollingHash, canonical, 0);
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param rollingHash - if true, the rolling hash of each k-mer is calculated (see getHash)
+     * @param canonical - if true, the canonical k-mer of each window is given (see KmerEncoder.canonical)
+     * @param minQuality - minimum Phred quality of the bases of a k-mer. Windows with a base of lower
+     *                   quality are skipped. 0 to ignore the qualities
+     */
+    public KmerIterator (int k, boolean rollingHash, boolean canonical, int minQuality) {
+        if (!KmerEncoder.isEncodable(k)) {
+            throw new IllegalArgumentException("k must be between 1 and " + KmerEncoder.MAX_K + ". Given: " + k);
+        }
+        if (minQuality < 0 || minQuality > MAX_QUALITY) {
+            throw new IllegalArgumentException("The minimum quality must be between 0 and " + MAX_QUALITY + ". Given: " + minQuality);
+        }
+        this.minQualityChar = minQuality == 0 ? 0 : PHRED_OFFSET + minQuality;
+        this.k = k;
+        this.mask = KmerEncoder.getMask(k);
+        this.rollingHash = rollingHash ? new RollingHash(k) : null;
+        this.canonical = canonical;
+        this.firstBaseShift = 2 * (k - 1);
+    }
+
+    /**
+     * Starts iterating over a new sequence
+     * @param characters - sequence to process
+     */
+    public void reset (CharSequence characters) {
+        reset(characters, null);
+    }
+
+    /**
+     * Starts iterating over a new sequence with the qualities of its bases
+     * @param characters - sequence to process
+     * @param scores - quality of each base (FASTQ score), or null if there are none
+     */
+    public void reset (CharSequence characters, CharSequence scores) {
+        this.characters = characters;
+        this.buffer = null;
+        setScores(scores);
+        start(0, characters.length());
+    }
+
+    /**
+     * Starts iterating over a sequence stored as ASCII bytes in a buffer
+     * @param buffer - buffer that contains the sequence
+     * @param offset - position of the first base in the buffer
+     * @param length - number of bytes of the sequence, including line breaks
+     */
+    public void reset (ByteBuffer buffer, int offset, int length) {
+        this.characters = null;
+        this.buffer = buffer;
+        setScores(null);
+        start(offset, offset + length);
+    }
+
+    /**
+     * Starts iterating over a sequence. The bases (and qualities) are read from the bytes of the buffer
+     * if the sequence is backed by one (MappedSequence), without decoding them
+     * @param sequence - sequence to process
+     */
+    public void reset (Sequence sequence) {
+        if (sequence instanceof MappedSequence) {
+            MappedSequence mapped = (MappedSequence) sequence;
+            reset(mapped.getBuffer(), mapped.getCharactersOffset(), mapped.getCharactersLength());
+            if (minQualityChar > 0) {
+                scoreBuffer = mapped.getBuffer();
+                scoreOffset = mapped.getScoreOffset();
+                scoreLength = mapped.getScoreLength();
+            }
+        } else {
+            reset(sequence.getCharacters(), minQualityChar > 0 ? sequence.getScore() : null);
+        }
+    }
+
+    private void setScores (CharSequence scores) {
+        this.scores = scores;
+        this.scoreBuffer = null;
+        this.scoreOffset = 0;
+        this.scoreLength = scores == null ? 0 : scores.length();
+    }
+
+    /**
+     * Checks the quality of a base
+     * @param index - index of the base in the sequence
+     * @return true if the quality of the base is below the minimum
+     */
+    private boolean isLowQuality (int index) {
+        if (index >= scoreLength) {
+            return false;
+        }
+        int quality = scoreBuffer != null ? scoreBuffer.get(scoreOffset + index) & 0xff : scores.charAt(index);
+        return quality < minQualityChar;
+    }
+
+    private void start (int position, int end) {
+        this.position = position;
+        this.end = end;
+        this.basesRead = 0;
+        this.validBases = 0;
+        this.kmer = 0;
+        this.reverseKmer = 0;
+    }
+
+    /**
+     * Moves the window to the next k-mer that only contains valid bases
+     * @return true if there is a k-mer available, false if the sequence ended
+     */
+    public boolean next () {
+        while (position < end) {
+            int code;
+            if (buffer != null) {
+                byte b = buffer.get(position++);
+                if (b == '\n' || b == '\r') {
+                    continue;
+                }
+                code = KmerEncoder.encodeBase((char) b);
+            } else {
+                code = KmerEncoder.encodeBase(characters.charAt(position++));
+            }
+            basesRead++;
+            if (code >= 0 && minQualityChar > 0 && isLowQuality(basesRead - 1)) {
+                code = -1;
+            }
+            if (code < 0) {
+                validBases = 0;
+                kmer = 0;
+                reverseKmer = 0;
+                continue;
+            }
+            int outCode = (int) (kmer >>> firstBaseShift) & 3;
+            kmer = ((kmer << 2) | code) & mask;
+            if (canonical) {
+                reverseKmer = (reverseKmer >>> 2) | ((long) (code ^ 3) << firstBaseShift);
+            }
+            if (++validBases >= k) {
+                if (rollingHash != null) {
+                    if (validBases == k) {
+                        hash = RollingHash.hash(kmer, k);
+                        reverseHash = canonical ? RollingHash.hash(reverseKmer, k) : 0;
+                    } else {
+                        hash = rollingHash.roll(hash, outCode, code);
+                        if (canonical) {
+                            reverseHash = rollingHash.rollReverse(reverseHash, outCode, code);
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the encoded k-mer of the current window. In canonical mode, the smallest between
+     * the k-mer and its reverse complement
+     */
+    public long getKmer () {
+        return canonical && isReverseSmaller() ? reverseKmer : kmer;
+    }
+
+    /**
+     * @return the rolling hash of the current k-mer (see getKmer). Only available if the
+     * iterator was created with rollingHash = true
+     */
+    public long getHash () {
+        return canonical && isReverseSmaller() ? reverseHash : hash;
+    }
+
+    private boolean isReverseSmaller () {
+        return Long.compareUnsigned(reverseKmer, kmer) < 0;
+    }
+
+    /**
+     * @return true if the iterator calculates the rolling hashes of the k-mers (see getHash)
+     */
+    public boolean hasRollingHash () {
+        return rollingHash != null;
+    }
+
+    /**
+     * @return the minimum Phred quality of the bases of the k-mers, or 0 if the qualities are not checked
+     */
+    public int getMinQuality () {
+        return minQualityChar == 0 ? 0 : minQualityChar - PHRED_OFFSET;
+    }
+
+    /**
+     * @return true if the iterator gives canonical k-mers
+     */
+    public boolean isCanonical () {
+        return canonical;
+    }
+
+    /**
+     * @return the index in the sequence where the current k-mer starts (line breaks are not counted)
+     */
+    public int getPosition () {
+        return basesRead - k;
+    }
+
+    /**
+     * @return the number of bases read from the start of the sequence, without line breaks.
+     * Once next returns false, it's the length of the sequence
+     */
+    public int getBasesRead () {
+        return basesRead;
+    }
+
+    /**
+     * @return the length of the k-mers
+     */
+    public int getK () {
+        return k;
+    }
+}
@@ -0,0 +1,71 @@
+package dataStructures;
+
+/**
+ * Approximate set (a bloom filter) of k-mers encoded as longs (see KmerEncoder).
+ * It's the membership structure used by KmerTable
+ */
+public interface KmerSet {
+
+    /**
+     * Adds an encoded k-mer to the set
+     * @param kmer - encoded k-mer
+     */
+    void add (long kmer);
+
+    /**
+     * Checks if an encoded k-mer belongs to the set. False positives are possible
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer belongs to the set, false otherwise
+     */
+    boolean contains (long kmer);
+
+    /**
+     * Adds an encoded k-mer to the set, if it doesn't belong to it yet
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer was added, false if it already belonged to the set
+     */
+    default boolean addIfAbsent (long kmer) {
+        if (contains(kmer)) {
+            return false;
+        }
+        add(kmer);
+        return true;
+    }
+
+    /**
+     * Adds an element that was already hashed by the caller (e.g. with a rolling hash)
+     * @param hash - 64 bit hash of the element
+     */
+    void addHash (long hash);
+
+    /**
+     * Checks if an element that was already hashed by the caller belongs to the set
+     * @param hash - 64 bit hash of the element
+     * @return true if the element belongs to the set, false otherwise
+     */
+    boolean containsHash (long hash);
+
+    /**
+     * Adds an element that was already hashed by the caller, if it doesn't belong to the set yet
+     * @param hash - 64 bit hash of the element
+     * @return true if the element was added, false if it already belonged to the set
+     */
+    default boolean addHashIfAbsent (long hash) {
+        if (containsHash(hash)) {
+            return false;
+        }
+        addHash(hash);
+        return true;
+    }
+
+    /**
+     * @return number of elements added to the set
+     */
+    long getSize ();
+
+    /**
+     * Estimates the current probability of false positives, from the bits that are set
+     * @return the estimated false positive rate
+     */
+    double getFalsePositiveRate ();
+}
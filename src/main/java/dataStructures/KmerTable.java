@@ -1,73 +1,471 @@
 package dataStructures;
 
+import hashing.HashingMode;
+import hashing.RollingHash;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.disposables.Disposable;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
 public class KmerTable {
 
-//    private int k;
+    /**
+     * Length of the k-mers. It's 0 if it's unknown, in which case the
+     * k-mers are stored as Strings
+     */
+    private final int k;
+
+    /**
+     * How the encoded k-mers are hashed into the bloom filter
+     */
+    private final HashingMode hashingMode;
+
+    /**
+     * If true, a k-mer and its reverse complement are counted as the same k-mer
+     * (see KmerEncoder.canonical)
+     */
+    private final boolean canonical;
     private BloomFilter<String> kmerSet;
     private Map<CharSequence, Short> kmerMap;
 
+    /**
+     * Bloom filter of the k-mers encoded with KmerEncoder. Only used if k <= KmerEncoder.MAX_K,
+     * otherwise kmerSet is used
+     */
+    private KmerSet encodedKmerSet;
+
+    /**
+     * Frequencies of the k-mers encoded with KmerEncoder. Only used if k <= KmerEncoder.MAX_K,
+     * otherwise kmerMap is used
+     */
+    private KmerCountMap encodedKmerMap;
+
 //    public KmerTable (int k, int expectedNumKmers, double expectedError){
 //        this.k = k;
 //        this.kmerSet = new BloomFilter<>(expectedNumKmers, expectedError);
 //        this.kmerMap = new int[expectedNumKmers];
 //    }
 
-    public KmerTable (int expectedNumEntries, double expectedError) {
+    public KmerTable (long expectedNumEntries, double expectedError) {
 //        this.k = k;
 //        this.kmerSet = kmerSet;
+        this.k = 0;
+        this.hashingMode = HashingMode.SEEDED;
+        this.canonical = false;
         this.kmerSet = new BloomFilter<>(expectedNumEntries, expectedError);
         this.kmerMap = new HashMap<>();
     }
 
+    /**
+     * Creates a table for k-mers of length k. If k <= KmerEncoder.MAX_K, the k-mers
+     * are stored encoded as longs (2 bits per base) instead of Strings
+     * @param k - length of the k-mers
+     * @param expectedNumEntries - Expected number of k-mers to be added
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     */
+    public KmerTable (int k, long expectedNumEntries, double expectedError) {
+        this(k, expectedNumEntries, expectedError, HashingMode.SEEDED);
+    }
+
+    /**
+     * Creates a table for k-mers of length k, hashing them into the bloom filter
+     * with the given mode. The ROLLING mode needs k <= KmerEncoder.MAX_K
+     * @param k - length of the k-mers
+     * @param expectedNumEntries - Expected number of k-mers to be added
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     */
+    public KmerTable (int k, long expectedNumEntries, double expectedError, HashingMode hashingMode) {
+        this(k, expectedNumEntries, expectedError, hashingMode, false);
+    }
+
+    /**
+     * Creates a table for k-mers of length k, hashing them into the bloom filter with the given mode.
+     * If canonical is true, a k-mer and its reverse complement are counted together, as the smallest
+     * of both (see KmerEncoder.canonical). The ROLLING mode and the canonical k-mers need k <= KmerEncoder.MAX_K
+     * @param k - length of the k-mers
+     * @param expectedNumEntries - Expected number of k-mers to be added
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    public KmerTable (int k, long expectedNumEntries, double expectedError, HashingMode hashingMode, boolean canonical) {
+        if (hashingMode == HashingMode.ROLLING && !KmerEncoder.isEncodable(k)) {
+            throw new IllegalArgumentException("Rolling hashes are only supported for k <= " + KmerEncoder.MAX_K + ". k = " + k);
+        }
+        if (canonical && !KmerEncoder.isEncodable(k)) {
+            throw new IllegalArgumentException("Canonical k-mers are only supported for k <= " + KmerEncoder.MAX_K + ". k = " + k);
+        }
+        this.k = k;
+        this.hashingMode = hashingMode;
+        this.canonical = canonical;
+        if (KmerEncoder.isEncodable(k)) {
+            this.encodedKmerSet = new BloomFilter<String>(expectedNumEntries, expectedError, hashingMode);
+            this.encodedKmerMap = new KmerCountMap();
+        } else {
+            this.kmerSet = new BloomFilter<>(expectedNumEntries, expectedError, hashingMode);
+            this.kmerMap = new HashMap<>();
+        }
+    }
+
+    /**
+     * Creates a table for encoded k-mers of length k <= KmerEncoder.MAX_K whose bloom filter grows
+     * with the number of k-mers (see ScalableBloomFilter), so the number of k-mers doesn't need
+     * to be known in advance. The probability of false positives stays below expectedError
+     * @param k - length of the k-mers
+     * @param expectedError - Maximum probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     */
+    public KmerTable (int k, double expectedError, HashingMode hashingMode) {
+        this(k, expectedError, hashingMode, false);
+    }
+
+    /**
+     * Creates a table for encoded k-mers of length k <= KmerEncoder.MAX_K whose bloom filter grows
+     * with the number of k-mers (see ScalableBloomFilter). If canonical is true, a k-mer and its
+     * reverse complement are counted together (see KmerEncoder.canonical)
+     * @param k - length of the k-mers
+     * @param expectedError - Maximum probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    public KmerTable (int k, double expectedError, HashingMode hashingMode, boolean canonical) {
+        this(k, new ScalableBloomFilter(ScalableBloomFilter.DEFAULT_INITIAL_CAPACITY, expectedError, hashingMode), hashingMode, canonical);
+    }
+
+    /**
+     * Creates a table for encoded k-mers of length k <= KmerEncoder.MAX_K that uses the
+     * given bloom filter, e.g. a BlockedBloomFilter
+     * @param k - length of the k-mers
+     * @param kmerSet - bloom filter of the k-mers. It should be empty
+     * @param hashingMode - How the k-mers are hashed into the bloom filter. With HashingMode.ROLLING
+     *                    the rolling hashes are given to the filter, otherwise the filter hashes the k-mers
+     */
+    public KmerTable (int k, KmerSet kmerSet, HashingMode hashingMode) {
+        this(k, kmerSet, hashingMode, false);
+    }
+
+    /**
+     * Creates a table for encoded k-mers of length k <= KmerEncoder.MAX_K that uses the
+     * given bloom filter. If canonical is true, a k-mer and its reverse complement are
+     * counted together (see KmerEncoder.canonical)
+     * @param k - length of the k-mers
+     * @param kmerSet - bloom filter of the k-mers. It should be empty
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    public KmerTable (int k, KmerSet kmerSet, HashingMode hashingMode, boolean canonical) {
+        this(k, hashingMode, canonical);
+        this.encodedKmerSet = kmerSet;
+        this.encodedKmerMap = new KmerCountMap();
+    }
+
+    /**
+     * Creates a table of encoded k-mers over structures that were already filled, e.g. the
+     * result of merging tables (see KmerTableMerger)
+     * @param k - length of the k-mers
+     * @param hashingMode - How the k-mers were hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     * @param kmerSet - bloom filter of all the k-mers
+     * @param kmerMap - frequencies of the k-mers seen more than once
+     */
+    KmerTable (int k, HashingMode hashingMode, boolean canonical, KmerSet kmerSet, KmerCountMap kmerMap) {
+        this(k, hashingMode, canonical);
+        this.encodedKmerSet = kmerSet;
+        this.encodedKmerMap = kmerMap;
+    }
+
+    /**
+     * Constructor for tables that keep the encoded k-mers in other structures (e.g. ShardedKmerTable).
+     * Subclasses must override the methods that work over encoded k-mers
+     * @param k - length of the k-mers
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     */
+    protected KmerTable (int k, HashingMode hashingMode) {
+        this(k, hashingMode, false);
+    }
+
+    /**
+     * Constructor for tables that keep the encoded k-mers in other structures (e.g. MappedKmerTable).
+     * Subclasses must override the methods that work over encoded k-mers
+     * @param k - length of the k-mers
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     */
+    protected KmerTable (int k, HashingMode hashingMode, boolean canonical) {
+        if (!KmerEncoder.isEncodable(k)) {
+            throw new IllegalArgumentException("Only k-mers of length 1 to " + KmerEncoder.MAX_K + " can be encoded. k = " + k);
+        }
+        this.k = k;
+        this.hashingMode = hashingMode;
+        this.canonical = canonical;
+    }
+
+    /**
+     * @return true if the k-mers are stored encoded as longs
+     */
+    public boolean isEncoded () {
+        return kmerMap == null;
+    }
+
+    /**
+     * @return how the k-mers are hashed into the bloom filter
+     */
+    public HashingMode getHashingMode () {
+        return hashingMode;
+    }
+
+    /**
+     * @return the length of the k-mers, or 0 if it's unknown
+     */
+    public int getK () {
+        return k;
+    }
+
+    /**
+     * @return true if a k-mer and its reverse complement are counted as the same k-mer
+     */
+    public boolean isCanonical () {
+        return canonical;
+    }
+
+    /**
+     * Gets the form in which an encoded k-mer is stored: the canonical k-mer if the table
+     * is canonical, or the same k-mer otherwise
+     * @param kmer - encoded k-mer
+     * @return the k-mer as stored in the table
+     */
+    protected long toStoredForm (long kmer) {
+        return canonical ? KmerEncoder.canonical(kmer, k) : kmer;
+    }
+
     public void add (String kmer) {
-        if (kmerSet.contains(kmer)){
+        if (isEncoded()) {
+            add(KmerEncoder.encode(kmer));
+        } else if (kmerSet.contains(kmer)){
             kmerMap.compute(kmer, (k, v) -> v == null ? 2 : (short)(v + 1));
         } else {
             kmerSet.add(kmer);
         }
     }
 
+    /**
+     * Adds a k-mer encoded with KmerEncoder
+     * @param kmer - encoded k-mer
+     */
+    public void add (long kmer) {
+        checkEncoded();
+        kmer = toStoredForm(kmer);
+        if (hashingMode == HashingMode.ROLLING) {
+            add(kmer, RollingHash.hash(kmer, k));
+        } else if (encodedKmerSet.contains(kmer)){
+            encodedKmerMap.increment(kmer, (short) 2);
+        } else {
+            encodedKmerSet.add(kmer);
+        }
+    }
+
+    /**
+     * Adds a k-mer encoded with KmerEncoder, together with its rolling hash (see RollingHash),
+     * which is used for the bloom filter instead of hashing the k-mer again.
+     * Only for tables with the ROLLING hashing mode. In canonical tables, the k-mer must be
+     * canonical and the hash must be the one of the canonical k-mer (see KmerIterator)
+     * @param kmer - encoded k-mer
+     * @param hash - rolling hash of the k-mer
+     */
+    public void add (long kmer, long hash) {
+        checkEncoded();
+        if (encodedKmerSet.containsHash(hash)){
+            encodedKmerMap.increment(kmer, (short) 2);
+        } else {
+            encodedKmerSet.addHash(hash);
+        }
+    }
+
     public short get (String kmer) {
+        if (isEncoded()) {
+            return get(KmerEncoder.encode(kmer));
+        }
         return kmerMap.getOrDefault(kmer, (short) 1);
     }
 
+    /**
+     * Gets the frequency of a k-mer encoded with KmerEncoder
+     * @param kmer - encoded k-mer
+     * @return the frequency of the k-mer
+     */
+    public short get (long kmer) {
+        checkEncoded();
+        short count = encodedKmerMap.get(toStoredForm(kmer));
+        return count == 0 ? 1 : count;
+    }
+
+    /**
+     * Checks if a k-mer encoded with KmerEncoder was added to the table. False positives
+     * are possible (see getFalsePositiveRate)
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer belongs to the table
+     */
+    public boolean contains (long kmer) {
+        checkEncoded();
+        kmer = toStoredForm(kmer);
+        if (hashingMode == HashingMode.ROLLING) {
+            return encodedKmerSet.containsHash(RollingHash.hash(kmer, k));
+        }
+        return encodedKmerSet.contains(kmer);
+    }
+
     public int getSize () {
-        return kmerMap.size();
+        return isEncoded() ? encodedKmerMap.size() : kmerMap.size();
     }
 
+    /**
+     * Estimates the current probability of false positives of the bloom filter
+     * @return the estimated false positive rate
+     */
+    public double getFalsePositiveRate () {
+        return isEncoded() ? encodedKmerSet.getFalsePositiveRate() : kmerSet.getFalsePositiveRate();
+    }
 
-    public void store (String outputFilePath) {
-        try {
-            File outputFile = new File(outputFilePath);
-            if (outputFile.exists()){
-                outputFile.delete();
-            }
+    /**
+     * Gets the fraction of bits set of the bloom filter. It counts all the bits, so it's meant
+     * for periodic monitoring rather than for every k-mer
+     * @return the fill ratio, or NaN if the filter is not a BloomFilter
+     */
+    public double getFillRatio () {
+        KmerSet set = isEncoded() ? encodedKmerSet : kmerSet;
+        return set instanceof BloomFilter ? ((BloomFilter<?>) set).getFillRatio() : Double.NaN;
+    }
 
-            System.out.println("Writing into file: " + outputFilePath);
-            BufferedWriter bw = new BufferedWriter(new FileWriter(outputFilePath, true));
-            bw.write("kmer,frequency\n");
+    /**
+     * @return the fraction of occupied slots of the count map of the encoded k-mers,
+     * or NaN if the table doesn't have one
+     */
+    public double getLoadFactor () {
+        return encodedKmerMap == null ? Double.NaN : encodedKmerMap.size() / (double) encodedKmerMap.getCapacity();
+    }
+
+    /**
+     * Applies the consumer to all the encoded k-mers with frequency greater than 1,
+     * in no particular order
+     * @param consumer - consumer of the k-mers and their frequencies
+     */
+    public void forEachEncoded (KmerCountMap.EntryConsumer consumer) {
+        checkEncoded();
+        encodedKmerMap.forEach(consumer);
+    }
+
+    /**
+     * @return the bloom filter of the encoded k-mers, or null if it's not a BloomFilter
+     */
+    BloomFilter<?> getBloomFilter () {
+        return encodedKmerSet instanceof BloomFilter ? (BloomFilter<?>) encodedKmerSet : null;
+    }
+
+    protected void checkEncoded () {
+        if (!isEncoded()) {
+            throw new IllegalStateException("The table doesn't store encoded k-mers. k = " + k);
+        }
+    }
 
-            kmerMap.forEach((key, v) -> {
-                System.out.println("Storing kmer: " + key);
-                try {
-                    bw.write(String.format("%s,%d\n", key, v));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
 
-            });
-        } catch (Exception e) {
+    /**
+     * Writes the table as CSV: one line per k-mer with frequency greater than 1
+     * @param outputFilePath - path of the output file. It's replaced if it exists
+     */
+    public void store (String outputFilePath) {
+        System.out.println("Writing into file: " + outputFilePath);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFilePath, false))) {
+            bw.write("kmer,frequency\n");
+            if (isEncoded()) {
+                forEachEncoded((key, v) -> writeEntry(bw, KmerEncoder.decode(key, k), v));
+            } else {
+                kmerMap.forEach((key, v) -> writeEntry(bw, key, v));
+            }
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
         }
     }
+
+    private static void writeEntry (Writer writer, CharSequence kmer, short frequency) {
+        try {
+            writer.append(kmer).append(',').append(Short.toString(frequency)).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the table in the binary format of MappedKmerTable: a header, the encoded k-mers
+     * with frequency greater than 1 in increasing order, their frequencies and, optionally, the
+     * bits of the bloom filter. The file can be queried with open without loading it into the heap
+     * @param outputFilePath - path of the output file. It's replaced if it exists
+     * @param includeFilter - if true, the bloom filter is written too. Only tables whose filter
+     *                      is a BloomFilter can include it
+     * @throws IOException if the file can't be written
+     */
+    public void storeBinary (String outputFilePath, boolean includeFilter) throws IOException {
+        checkEncoded();
+        MappedKmerTable.write(this, outputFilePath, includeFilter);
+    }
+
+    /**
+     * Merges tables of encoded k-mers counted separately, e.g. one per sequencing lane, into a new table,
+     * without reading the sequences again. The tables must have the same k, hashing mode and canonical form,
+     * and bloom filters with the same parameters (the same expected number of k-mers and error), which
+     * are combined with the bitwise OR of their bits. The count maps are merged in parallel, one
+     * partition of the k-mers per thread. ShardedKmerTables with the same number of shards are merged
+     * shard by shard. The tables are not modified.
+     * The frequency of a k-mer is the sum of its frequencies in the tables where it's found. A k-mer
+     * seen only once in each table is only in the filters, so its merged frequency stays 1
+     * @param tables - tables to merge
+     * @return the merged table
+     */
+    public static KmerTable merge (KmerTable... tables) {
+        return KmerTableMerger.merge(Runtime.getRuntime().availableProcessors(), tables);
+    }
+
+    /**
+     * Merges tables of encoded k-mers with the given number of threads (see merge(KmerTable...))
+     * @param numThreads - number of threads, and of partitions of the k-mers
+     * @param tables - tables to merge
+     * @return the merged table
+     */
+    public static KmerTable merge (int numThreads, KmerTable... tables) {
+        return KmerTableMerger.merge(numThreads, tables);
+    }
+
+    /**
+     * Merges tables written with storeBinary into a new file, reading their sorted k-mers in a single
+     * streaming pass (k-way merge), so the tables are never loaded into the heap. The files must have the
+     * same k, hashing mode and canonical form, and either all of them include bloom filters with the same
+     * parameters, whose union is the filter of the new file, or none does (e.g. tables of countKmersOnDisk).
+     * As in merge(KmerTable...), a k-mer seen once in each table keeps frequency 1, and without filters
+     * the k-mers seen once are not counted at all
+     * @param outputFilePath - path of the merged file. It's replaced if it exists, and it can't be an input
+     * @param inputFilePaths - paths of the files to merge
+     * @return the merged table, opened with open
+     * @throws IOException if the files can't be read or written
+     */
+    public static KmerTable mergeBinary (String outputFilePath, String... inputFilePaths) throws IOException {
+        KmerTableMerger.mergeBinary(outputFilePath, inputFilePaths);
+        return open(outputFilePath);
+    }
+
+    /**
+     * Opens a table written with storeBinary. The file is mapped into memory and the
+     * table is read only
+     * @param filePath - path of the file
+     * @return the table
+     * @throws IOException if the file can't be read or it isn't a table
+     */
+    public static KmerTable open (String filePath) throws IOException {
+        return MappedKmerTable.read(filePath);
+    }
 }
@@ -0,0 +1,430 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges KmerTables counted separately (e.g. one per sequencing lane) without counting the
+ * sequences again (see KmerTable.merge and KmerTable.mergeBinary).
+ *
+ * Only the k-mers with frequency greater than 1 can be enumerated; the ones seen once are only
+ * in the bloom filters. So the merged frequency of a k-mer is, over all the tables, the sum of
+ * its frequency in the tables that count it, plus 1 for each table whose filter contains it.
+ * A k-mer seen once in each table can't be found and keeps frequency 1. False positives of
+ * the filters can add 1 to a frequency.
+ */
+final class KmerTableMerger {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private KmerTableMerger () {}
+
+    /**
+     * Merges tables in memory. The filters are combined with their bitwise OR and the count maps
+     * in parallel: each thread merges the k-mers of one partition of their hashes. The tables are
+     * queried from several threads at the same time, so they must not be modified meanwhile. Sharded tables
+     * with the same number of shards are merged shard by shard instead
+     * @param numThreads - number of threads, and of partitions of the k-mers
+     * @param tables - tables to merge
+     * @return the merged table
+     */
+    static KmerTable merge (int numThreads, KmerTable... tables) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive. Given: " + numThreads);
+        }
+        checkCompatible(tables);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "kmer-table-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if (areShardedAlike(tables)) {
+                return mergeShards(pool, tables);
+            }
+            return mergeTables(pool, numThreads, tables);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while merging the tables", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Error while merging the tables", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks that the tables store encoded k-mers in the same way: same k, hashing mode and canonical form
+     * @param tables - tables to merge
+     */
+    private static void checkCompatible (KmerTable[] tables) {
+        if (tables.length == 0) {
+            throw new IllegalArgumentException("At least one table is needed");
+        }
+        KmerTable first = tables[0];
+        for (KmerTable table : tables) {
+            if (!table.isEncoded()) {
+                throw new IllegalArgumentException("Only tables of encoded k-mers can be merged. k = " + table.getK());
+            }
+            if (table.getK() != first.getK() || table.getHashingMode() != first.getHashingMode()
+                    || table.isCanonical() != first.isCanonical()) {
+                throw new IllegalArgumentException("Only tables with the same k, hashing mode and canonical form can be merged");
+            }
+        }
+    }
+
+    /**
+     * @param tables - tables to merge
+     * @return true if all the tables are ShardedKmerTables with the same number of shards
+     */
+    private static boolean areShardedAlike (KmerTable[] tables) {
+        for (KmerTable table : tables) {
+            if (!(table instanceof ShardedKmerTable)
+                    || ((ShardedKmerTable) table).getNumShards() != ((ShardedKmerTable) tables[0]).getNumShards()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges sharded tables. A k-mer belongs to the same shard in all of them, so each shard
+     * is merged independently, one shard per task
+     */
+    private static ShardedKmerTable mergeShards (ExecutorService pool, KmerTable[] tables) throws InterruptedException, ExecutionException {
+        int numShards = ((ShardedKmerTable) tables[0]).getNumShards();
+        List<Future<KmerTable>> results = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            KmerTable[] shards = new KmerTable[tables.length];
+            for (int t = 0; t < tables.length; t++) {
+                shards[t] = ((ShardedKmerTable) tables[t]).getShard(i);
+            }
+            results.add(pool.submit(() -> mergeTables(null, 1, shards)));
+        }
+        KmerTable[] merged = new KmerTable[numShards];
+        for (int i = 0; i < numShards; i++) {
+            merged[i] = results.get(i).get();
+        }
+        return new ShardedKmerTable(tables[0].getK(), tables[0].getHashingMode(), merged);
+    }
+
+    /**
+     * Merges tables with bloom filters of the same parameters
+     * @param pool - threads of the partitions, or null to merge in the current thread
+     * @param numPartitions - number of partitions of the k-mers
+     * @param tables - tables to merge
+     */
+    private static KmerTable mergeTables (ExecutorService pool, int numPartitions, KmerTable[] tables) throws InterruptedException, ExecutionException {
+        BloomFilter<?> firstFilter = tables[0].getBloomFilter();
+        for (KmerTable table : tables) {
+            BloomFilter<?> filter = table.getBloomFilter();
+            if (firstFilter == null || filter == null || !firstFilter.hasSameParameters(filter)) {
+                throw new IllegalArgumentException("Only tables whose bloom filters have the same parameters can be merged");
+            }
+        }
+        BloomFilter<?> filter;
+        KmerCountMap counts;
+        if (pool == null || numPartitions == 1) {
+            filter = unionFilters(firstFilter, tables);
+            counts = mergeCounts(tables);
+        } else {
+            Future<BloomFilter<?>> filterResult = pool.submit(() -> unionFilters(firstFilter, tables));
+            counts = mergeCounts(pool, numPartitions, tables);
+            filter = filterResult.get();
+        }
+        KmerTable first = tables[0];
+        return new KmerTable(first.getK(), first.getHashingMode(), first.isCanonical(), filter, counts);
+    }
+
+    /**
+     * Combines the filters of the tables into a new one, with the bitwise OR of their bits
+     * @param firstFilter - filter of the first table
+     * @param tables - tables to merge
+     * @return the union of the filters
+     */
+    private static BloomFilter<?> unionFilters (BloomFilter<?> firstFilter, KmerTable[] tables) {
+        BloomFilter<?> union = firstFilter.emptyCopy();
+        for (KmerTable table : tables) {
+            union.merge(table.getBloomFilter());
+        }
+        return union;
+    }
+
+    /**
+     * Gets the expected number of k-mers of a partition: the k-mers counted by all the
+     * tables, divided by the number of partitions
+     */
+    private static int getExpectedSize (KmerTable[] tables, int numPartitions) {
+        long totalSize = 0;
+        for (KmerTable table : tables) {
+            totalSize += table.getSize();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, totalSize / numPartitions + 1);
+    }
+
+    /**
+     * Merges the frequencies of the k-mers of the tables in the current thread
+     * @param tables - tables to merge
+     * @return the merged frequencies
+     */
+    private static KmerCountMap mergeCounts (KmerTable[] tables) {
+        KmerCountMap counts = new KmerCountMap(getExpectedSize(tables, 1), LOAD_FACTOR);
+        for (KmerTable table : tables) {
+            table.forEachEncoded((kmer, count) -> addMerged(counts, tables, kmer));
+        }
+        return counts;
+    }
+
+    /**
+     * Merges the frequencies of the k-mers of the tables in parallel. First each table is scanned once,
+     * by its own task, and its k-mers are routed to the partitions. Then each partition is merged by
+     * its own task, and the partitions are combined into a single map
+     * @param pool - threads of the tasks
+     * @param numPartitions - number of partitions of the k-mers
+     * @param tables - tables to merge
+     * @return the merged frequencies
+     */
+    private static KmerCountMap mergeCounts (ExecutorService pool, int numPartitions, KmerTable[] tables) throws InterruptedException, ExecutionException {
+        List<Callable<KmerList[]>> routingTasks = new ArrayList<>();
+        for (KmerTable table : tables) {
+            routingTasks.add(() -> route(table, numPartitions));
+        }
+        List<KmerList[]> routed = new ArrayList<>();
+        for (Future<KmerList[]> result : pool.invokeAll(routingTasks)) {
+            routed.add(result.get());
+        }
+
+        int expectedSize = getExpectedSize(tables, numPartitions);
+        List<Callable<KmerCountMap>> mergingTasks = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            int partition = i;
+            mergingTasks.add(() -> {
+                KmerCountMap counts = new KmerCountMap(expectedSize, LOAD_FACTOR);
+                for (KmerList[] lists : routed) {
+                    KmerList list = lists[partition];
+                    for (int j = 0; j < list.size; j++) {
+                        addMerged(counts, tables, list.kmers[j]);
+                    }
+                    lists[partition] = null;
+                }
+                return counts;
+            });
+        }
+        List<KmerCountMap> partitions = new ArrayList<>();
+        for (Future<KmerCountMap> result : pool.invokeAll(mergingTasks)) {
+            partitions.add(result.get());
+        }
+
+        int size = 0;
+        for (KmerCountMap partition : partitions) {
+            size += partition.size();
+        }
+        KmerCountMap merged = new KmerCountMap(size, LOAD_FACTOR);
+        for (KmerCountMap partition : partitions) {
+            partition.forEach(merged::put);
+        }
+        return merged;
+    }
+
+    /**
+     * Splits the k-mers counted by a table by partition
+     * @param table - table to scan
+     * @param numPartitions - number of partitions
+     * @return the k-mers of each partition
+     */
+    private static KmerList[] route (KmerTable table, int numPartitions) {
+        KmerList[] lists = new KmerList[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            lists[i] = new KmerList(table.getSize() / numPartitions + 16);
+        }
+        table.forEachEncoded((kmer, count) -> lists[getPartition(kmer, numPartitions)].add(kmer));
+        return lists;
+    }
+
+    /**
+     * Adds a k-mer with its frequency summed over all the tables, if it wasn't merged yet
+     * @param counts - merged frequencies
+     * @param tables - tables to merge
+     * @param kmer - encoded k-mer, in stored form
+     */
+    private static void addMerged (KmerCountMap counts, KmerTable[] tables, long kmer) {
+        if (!counts.containsKey(kmer)) {
+            counts.put(kmer, sumCounts(tables, kmer));
+        }
+    }
+
+    /**
+     * Gets the partition of an encoded k-mer, from the 32 most significant bits of its hash
+     * (as ShardedKmerTable.getShardIndex)
+     */
+    private static int getPartition (long kmer, int numPartitions) {
+        long prefix = MurmurHash3.fmix64(kmer) >>> 32;
+        return (int) ((prefix * numPartitions) >>> 32);
+    }
+
+    /**
+     * Sums the frequencies of a k-mer (in stored form) in the tables: the frequency of the tables
+     * that count it, and 1 for the tables where it's only in the filter
+     * @return the sum, saturated at Short.MAX_VALUE
+     */
+    private static short sumCounts (KmerTable[] tables, long kmer) {
+        int sum = 0;
+        for (KmerTable table : tables) {
+            short count = table.get(kmer);
+            if (count > 1) {
+                sum += count;
+            } else if (table.contains(kmer)) {
+                sum++;
+            }
+        }
+        return (short) Math.min(sum, Short.MAX_VALUE);
+    }
+
+    /**
+     * Merges tables written in the binary format (see MappedKmerTable) into a new file. The sorted
+     * k-mers of the files are read in a single pass with a priority queue over the next k-mer of each
+     * file, so the frequencies of a k-mer in all the files are found together. Only the filters are
+     * queried at random positions, for the files where a k-mer is not counted. Either all the files
+     * have bloom filters with the same parameters, or none has
+     * @param outputFilePath - path of the merged file. It's replaced if it exists
+     * @param inputFilePaths - paths of the files to merge
+     * @throws IOException if the files can't be read or written
+     */
+    static void mergeBinary (String outputFilePath, String... inputFilePaths) throws IOException {
+        File output = new File(outputFilePath).getCanonicalFile();
+        MappedKmerTable[] tables = new MappedKmerTable[inputFilePaths.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (new File(inputFilePaths[i]).getCanonicalFile().equals(output)) {
+                throw new IllegalArgumentException("The output file can't be one of the inputs: " + outputFilePath);
+            }
+            tables[i] = MappedKmerTable.read(inputFilePaths[i]);
+        }
+        checkCompatible(tables);
+
+        List<BloomFilter<?>> filters = new ArrayList<>();
+        BloomFilter<?> firstFilter = tables[0].getBloomFilter();
+        for (MappedKmerTable table : tables) {
+            BloomFilter<?> filter = table.getBloomFilter();
+            if (firstFilter == null && filter == null) {
+                continue;
+            }
+            if (firstFilter == null || filter == null || !firstFilter.hasSameParameters(filter)) {
+                throw new IllegalArgumentException("Only tables whose bloom filters have the same parameters can be merged");
+            }
+            filters.add(filter);
+        }
+
+        PriorityQueue<TableCursor> queue = new PriorityQueue<>(
+                tables.length,
+                Comparator.comparingLong((TableCursor cursor) -> cursor.kmer ^ Long.MIN_VALUE)
+        );
+        for (MappedKmerTable table : tables) {
+            TableCursor cursor = new TableCursor(table);
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+        }
+        MappedKmerTable first = tables[0];
+        List<TableCursor> current = new ArrayList<>();
+        try (MappedKmerTable.Writer writer = new MappedKmerTable.Writer(outputFilePath, first.getK(),
+                first.isCanonical(), first.getHashingMode(), filters)) {
+            while (!queue.isEmpty()) {
+                long kmer = queue.peek().kmer;
+                int sum = 0;
+                while (!queue.isEmpty() && queue.peek().kmer == kmer) {
+                    TableCursor cursor = queue.poll();
+                    sum += cursor.count;
+                    current.add(cursor);
+                }
+                if (!filters.isEmpty() && current.size() < tables.length) {
+                    for (MappedKmerTable table : tables) {
+                        if (!isCurrent(current, table) && table.contains(kmer)) {
+                            sum++;
+                        }
+                    }
+                }
+                writer.add(kmer, (short) Math.min(sum, Short.MAX_VALUE));
+                for (TableCursor cursor : current) {
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+                current.clear();
+            }
+        }
+    }
+
+    /**
+     * @return true if the table is one of the cursors
+     */
+    private static boolean isCurrent (List<TableCursor> cursors, MappedKmerTable table) {
+        for (TableCursor cursor : cursors) {
+            if (cursor.table == table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Growable list of encoded k-mers
+     */
+    private static final class KmerList {
+        long[] kmers;
+        int size = 0;
+
+        KmerList (int capacity) {
+            this.kmers = new long[capacity];
+        }
+
+        void add (long kmer) {
+            if (size == kmers.length) {
+                kmers = Arrays.copyOf(kmers, (int) Math.min(Integer.MAX_VALUE - 8, 2L * kmers.length));
+            }
+            kmers[size++] = kmer;
+        }
+    }
+
+    /**
+     * Position in the sorted k-mers of a MappedKmerTable
+     */
+    private static final class TableCursor {
+        final MappedKmerTable table;
+        long next = 0;
+        long kmer;
+        short count;
+
+        TableCursor (MappedKmerTable table) {
+            this.table = table;
+        }
+
+        /**
+         * Moves to the next k-mer
+         * @return false if there are no more k-mers
+         */
+        boolean next () {
+            if (next == table.getNumEntries()) {
+                return false;
+            }
+            kmer = table.getKey(next);
+            count = table.getCount(next);
+            next++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package dataStructures;
+
+import hashing.HashingMode;
+import hashing.RollingHash;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read only KmerTable over a binary file mapped into memory, so the table can be queried
+ * without loading it into the heap. The file (big endian) has:
+ * - A header of HEADER_SIZE bytes: magic number, version, k, encoding of the k-mers, hashing mode,
+ *   flags, number of entries and, if there is a bloom filter, its number of functions, bits and elements.
+ * - The encoded k-mers with frequency greater than 1 as longs, in increasing (unsigned) order.
+ * - Their frequencies as shorts, in the same order.
+ * - Optionally, aligned to 8 bytes, the bits of the bloom filter as longs (see BitArray.getLong).
+ * A k-mer is found by interpolation search over the sorted k-mers, which falls back to binary search.
+ */
+public class MappedKmerTable extends KmerTable {
+
+    /**
+     * "KMTB"
+     */
+    private static final int MAGIC = 0x4B4D5442;
+    private static final int VERSION = 1;
+
+    /**
+     * Encoding of the k-mers: 2 bits per base (see KmerEncoder)
+     */
+    private static final int ENCODING_2_BIT = 0;
+
+    /**
+     * Flags of the header
+     */
+    private static final int FLAG_FILTER = 1;
+    private static final int FLAG_DOUBLE_HASHING = 2;
+    private static final int FLAG_CANONICAL = 4;
+
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * Position of the number of entries in the header
+     */
+    private static final int NUM_ENTRIES_OFFSET = 24;
+
+    /**
+     * log2 of the number of k-mers and frequencies per mapped chunk (1 GB each)
+     */
+    private static final int KEYS_PER_CHUNK_LOG = 27;
+    private static final int COUNTS_PER_CHUNK_LOG = 29;
+
+    /**
+     * Number of interpolation steps of a search before falling back to binary search
+     */
+    private static final int INTERPOLATION_STEPS = 8;
+
+    /**
+     * Number of k-mers with frequency greater than 1
+     */
+    private final long numEntries;
+
+    /**
+     * Mapped chunks of the sorted k-mers and of their frequencies
+     */
+    private final ByteBuffer[] keyChunks;
+    private final ByteBuffer[] countChunks;
+
+    /**
+     * Bloom filter of all the k-mers, or null if the file doesn't include it
+     */
+    private final BloomFilter<String> bloomFilter;
+
+    private MappedKmerTable (int k, HashingMode hashingMode, boolean canonical, long numEntries, ByteBuffer[] keyChunks,
+                             ByteBuffer[] countChunks, BloomFilter<String> bloomFilter) {
+        super(k, hashingMode, canonical);
+        this.numEntries = numEntries;
+        this.keyChunks = keyChunks;
+        this.countChunks = countChunks;
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * Writes a table of encoded k-mers in the binary format
+     * @param table - table to write
+     * @param outputFilePath - path of the output file. It's replaced if it exists
+     * @param includeFilter - if true, the bloom filter of the table is written too
+     * @throws IOException if the file can't be written
+     */
+    static void write (KmerTable table, String outputFilePath, boolean includeFilter) throws IOException {
+        BloomFilter<?> filter = includeFilter ? table.getBloomFilter() : null;
+        if (includeFilter && filter == null) {
+            throw new IllegalArgumentException("Only the filter of tables with a BloomFilter can be written");
+        }
+        // The sign bit is flipped so that the signed sort gives the unsigned order
+        long[] keys = new long[table.getSize()];
+        int[] numKeys = {0};
+        table.forEachEncoded((key, count) -> keys[numKeys[0]++] = key ^ Long.MIN_VALUE);
+        Arrays.sort(keys, 0, numKeys[0]);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFilePath, false), 1 << 16))) {
+            int flags = filter == null ? 0 : FLAG_FILTER | (filter.isDoubleHashing() ? FLAG_DOUBLE_HASHING : 0);
+            if (table.isCanonical()) {
+                flags |= FLAG_CANONICAL;
+            }
+            writeHeader(out, table.getK(), table.getHashingMode(), flags, numKeys[0],
+                    filter == null ? 0 : filter.getNumFunctions(),
+                    filter == null ? 0 : filter.getBitArray().getSize(),
+                    filter == null ? 0 : filter.getSize());
+
+            for (int i = 0; i < numKeys[0]; i++) {
+                out.writeLong(keys[i] ^ Long.MIN_VALUE);
+            }
+            for (int i = 0; i < numKeys[0]; i++) {
+                out.writeShort(table.get(keys[i] ^ Long.MIN_VALUE));
+            }
+            if (filter != null) {
+                long end = HEADER_SIZE + (long) numKeys[0] * (Long.BYTES + Short.BYTES);
+                for (long pos = end; pos < getFilterPosition(numKeys[0]); pos++) {
+                    out.writeByte(0);
+                }
+                BitArray bitArray = filter.getBitArray();
+                long numLongs = (bitArray.getSize() + Long.SIZE - 1) / Long.SIZE;
+                for (long i = 0; i < numLongs; i++) {
+                    out.writeLong(bitArray.getLong(i));
+                }
+            }
+        }
+    }
+
+    private static void writeHeader (DataOutput out, int k, HashingMode hashingMode, int flags, long numEntries,
+                                     int numFunctions, long numBits, long filterSize) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(k);
+        out.writeInt(ENCODING_2_BIT);
+        out.writeInt(hashingMode.ordinal());
+        out.writeInt(flags);
+        out.writeLong(numEntries);
+        out.writeInt(numFunctions);
+        out.writeInt(0);
+        out.writeLong(numBits);
+        out.writeLong(filterSize);
+        out.writeLong(0);
+    }
+
+    /**
+     * Writes a table in the binary format from k-mers given in increasing (unsigned) order,
+     * without keeping them in memory, e.g. while merging sorted files. The k-mers are written to
+     * the file and the frequencies to a temporary file, which is appended when the writer is closed.
+     * Optionally, the bloom filter of the file is the union (bitwise OR) of some filters with the
+     * same parameters, which is written 64 bits at a time when the writer is closed
+     */
+    static final class Writer implements Closeable {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final String outputFilePath;
+        private final File countsFile;
+        private final DataOutputStream keys;
+        private final DataOutputStream counts;
+
+        /**
+         * Filters whose union is written to the file. Empty if the file has no bloom filter
+         */
+        private final List<BloomFilter<?>> filters;
+
+        private long numEntries = 0;
+        private long lastKey;
+
+        /**
+         * Writer of a file without bloom filter
+         * @param outputFilePath - path of the output file. It's replaced if it exists
+         * @param k - length of the k-mers
+         * @param canonical - if the k-mers are canonical (see KmerTable.isCanonical)
+         * @throws IOException if the file can't be written
+         */
+        Writer (String outputFilePath, int k, boolean canonical) throws IOException {
+            this(outputFilePath, k, canonical, HashingMode.SEEDED, Collections.emptyList());
+        }
+
+        /**
+         * @param outputFilePath - path of the output file. It's replaced if it exists
+         * @param k - length of the k-mers
+         * @param canonical - if the k-mers are canonical (see KmerTable.isCanonical)
+         * @param hashingMode - how the k-mers were hashed into the filters
+         * @param filters - filters with the same parameters whose union is the bloom filter of the file.
+         *                If it's empty, the file has no bloom filter
+         * @throws IOException if the file can't be written
+         */
+        Writer (String outputFilePath, int k, boolean canonical, HashingMode hashingMode, List<BloomFilter<?>> filters) throws IOException {
+            int flags = canonical ? FLAG_CANONICAL : 0;
+            int numFunctions = 0;
+            long numBits = 0;
+            long filterSize = 0;
+            if (!filters.isEmpty()) {
+                BloomFilter<?> first = filters.get(0);
+                for (BloomFilter<?> filter : filters) {
+                    if (!first.hasSameParameters(filter)) {
+                        throw new IllegalArgumentException("Only filters with the same parameters can be merged");
+                    }
+                    filterSize += filter.getSize();
+                }
+                flags |= FLAG_FILTER | (first.isDoubleHashing() ? FLAG_DOUBLE_HASHING : 0);
+                numFunctions = first.getNumFunctions();
+                numBits = first.getBitArray().getSize();
+            }
+            this.outputFilePath = outputFilePath;
+            this.filters = new ArrayList<>(filters);
+            this.countsFile = new File(outputFilePath + ".counts");
+            this.keys = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFilePath, false), BUFFER_SIZE));
+            this.counts = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(countsFile, false), BUFFER_SIZE));
+            writeHeader(keys, k, hashingMode, flags, 0, numFunctions, numBits, filterSize);
+        }
+
+        /**
+         * Adds a k-mer. It must be greater (unsigned) than the previous one
+         * @param kmer - encoded k-mer
+         * @param count - frequency of the k-mer
+         * @throws IOException if the file can't be written
+         */
+        void add (long kmer, short count) throws IOException {
+            if (numEntries > 0 && Long.compareUnsigned(kmer, lastKey) <= 0) {
+                throw new IllegalArgumentException("The k-mers must be given in increasing order");
+            }
+            keys.writeLong(kmer);
+            counts.writeShort(count);
+            lastKey = kmer;
+            numEntries++;
+        }
+
+        /**
+         * Appends the frequencies and the bloom filter to the file, and writes the number of
+         * entries in the header
+         * @throws IOException if the file can't be written
+         */
+        @Override
+        public void close () throws IOException {
+            keys.close();
+            counts.close();
+            try (RandomAccessFile file = new RandomAccessFile(outputFilePath, "rw");
+                 FileChannel channel = file.getChannel();
+                 FileChannel countsChannel = FileChannel.open(countsFile.toPath())) {
+                long countsSize = countsChannel.size();
+                channel.position(channel.size());
+                for (long transferred = 0; transferred < countsSize; ) {
+                    transferred += countsChannel.transferTo(transferred, countsSize - transferred, channel);
+                }
+                if (!filters.isEmpty()) {
+                    writeFilterUnion(channel);
+                }
+                file.seek(NUM_ENTRIES_OFFSET);
+                file.writeLong(numEntries);
+            } finally {
+                countsFile.delete();
+            }
+        }
+
+        /**
+         * Writes at the end of the file, aligned to 8 bytes, the bitwise OR of the bits of the filters
+         * @param channel - channel of the file, positioned at its end
+         */
+        private void writeFilterUnion (FileChannel channel) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            for (long pos = channel.position(); pos < getFilterPosition(numEntries); pos++) {
+                out.writeByte(0);
+            }
+            long numLongs = (filters.get(0).getBitArray().getSize() + Long.SIZE - 1) / Long.SIZE;
+            for (long i = 0; i < numLongs; i++) {
+                long bits = 0;
+                for (BloomFilter<?> filter : filters) {
+                    bits |= filter.getBitArray().getLong(i);
+                }
+                out.writeLong(bits);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Opens a table written in the binary format
+     * @param filePath - path of the file
+     * @return the table
+     * @throws IOException if the file can't be read or it isn't a table
+     */
+    static MappedKmerTable read (String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a k-mer table: " + filePath);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a k-mer table: " + filePath);
+            }
+            if (header.getInt(4) != VERSION || header.getInt(12) != ENCODING_2_BIT) {
+                throw new IOException("Unsupported k-mer table version or encoding: " + filePath);
+            }
+            int k = header.getInt(8);
+            if (!KmerEncoder.isEncodable(k)) {
+                throw new IOException("Invalid k-mer length " + k + " in k-mer table: " + filePath);
+            }
+            int hashingModeIndex = header.getInt(16);
+            if (hashingModeIndex < 0 || hashingModeIndex >= HashingMode.values().length) {
+                throw new IOException("Invalid hashing mode " + hashingModeIndex + " in k-mer table: " + filePath);
+            }
+            HashingMode hashingMode = HashingMode.values()[hashingModeIndex];
+            int flags = header.getInt(20);
+            long numEntries = header.getLong(NUM_ENTRIES_OFFSET);
+            if (numEntries < 0) {
+                throw new IOException("Invalid number of entries " + numEntries + " in k-mer table: " + filePath);
+            }
+            if (numEntries > (channel.size() - HEADER_SIZE) / (Long.BYTES + Short.BYTES)) {
+                throw new IOException("Truncated k-mer table: " + filePath);
+            }
+
+            long countsPosition = HEADER_SIZE + numEntries * Long.BYTES;
+            long expectedSize = countsPosition + numEntries * Short.BYTES;
+            BloomFilter<String> bloomFilter = null;
+            if ((flags & FLAG_FILTER) != 0) {
+                long numBits = header.getLong(40);
+                int numFunctions = header.getInt(32);
+                if (numBits <= 0 || numBits > channel.size() * Byte.SIZE || numFunctions <= 0) {
+                    throw new IOException("Invalid bloom filter in k-mer table: " + filePath);
+                }
+                long filterPosition = getFilterPosition(numEntries);
+                expectedSize = filterPosition + (numBits + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+                if (channel.size() >= expectedSize) {
+                    BitArray bitArray = new OffHeapBitArray(numBits, channel, filterPosition, FileChannel.MapMode.READ_ONLY);
+                    bloomFilter = new BloomFilter<>(numFunctions, (flags & FLAG_DOUBLE_HASHING) != 0, bitArray, header.getLong(48));
+                }
+            }
+            if (channel.size() < expectedSize) {
+                throw new IOException("Truncated k-mer table: " + filePath);
+            }
+            return new MappedKmerTable(k, hashingMode, (flags & FLAG_CANONICAL) != 0, numEntries,
+                    map(channel, HEADER_SIZE, numEntries, KEYS_PER_CHUNK_LOG, Long.BYTES),
+                    map(channel, countsPosition, numEntries, COUNTS_PER_CHUNK_LOG, Short.BYTES),
+                    bloomFilter);
+        }
+    }
+
+    /**
+     * Gets the position of the bloom filter in a file: after the frequencies, aligned to 8 bytes
+     * @param numEntries - number of k-mers of the file
+     */
+    private static long getFilterPosition (long numEntries) {
+        long end = HEADER_SIZE + numEntries * (Long.BYTES + Short.BYTES);
+        return (end + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    }
+
+    /**
+     * Maps an array of the file in chunks
+     * @param channel - channel of the file
+     * @param position - position of the array in the file
+     * @param length - number of elements of the array
+     * @param perChunkLog - log2 of the number of elements per chunk
+     * @param elementBytes - size of an element
+     */
+    private static ByteBuffer[] map (FileChannel channel, long position, long length, int perChunkLog, int elementBytes) throws IOException {
+        long perChunk = 1L << perChunkLog;
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((length + perChunk - 1) >>> perChunkLog)];
+        for (int i = 0; i < chunks.length; i++) {
+            long elements = Math.min(perChunk, length - i * perChunk);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + i * perChunk * elementBytes, elements * elementBytes);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return number of k-mers with frequency greater than 1
+     */
+    long getNumEntries () {
+        return numEntries;
+    }
+
+    /**
+     * @param idx - position among the sorted k-mers
+     * @return the k-mer at the position
+     */
+    long getKey (long idx) {
+        return keyChunks[(int) (idx >>> KEYS_PER_CHUNK_LOG)]
+                .getLong((int) (idx & ((1L << KEYS_PER_CHUNK_LOG) - 1)) * Long.BYTES);
+    }
+
+    /**
+     * @param idx - position among the sorted k-mers
+     * @return the frequency of the k-mer at the position
+     */
+    short getCount (long idx) {
+        return countChunks[(int) (idx >>> COUNTS_PER_CHUNK_LOG)]
+                .getShort((int) (idx & ((1L << COUNTS_PER_CHUNK_LOG) - 1)) * Short.BYTES);
+    }
+
+    /**
+     * Finds the position of an encoded k-mer among the sorted k-mers. The first steps guess the
+     * position by interpolating between the k-mers at the ends of the range; then it continues
+     * with binary search, so the worst case is still logarithmic
+     * @param kmer - encoded k-mer
+     * @return the position of the k-mer, or -1 if it's not in the file
+     */
+    private long find (long kmer) {
+        // The sign bit is flipped so that the unsigned order can be compared as signed
+        long target = kmer ^ Long.MIN_VALUE;
+        long low = 0;
+        long high = numEntries - 1;
+        int steps = 0;
+        while (low <= high) {
+            long mid;
+            if (steps++ < INTERPOLATION_STEPS) {
+                long lowKey = getKey(low) ^ Long.MIN_VALUE;
+                long highKey = getKey(high) ^ Long.MIN_VALUE;
+                if (target < lowKey || target > highKey) {
+                    return -1;
+                }
+                double fraction = highKey == lowKey ? 0 : ((double) target - lowKey) / ((double) highKey - lowKey);
+                mid = Math.min(high, Math.max(low, low + (long) (fraction * (high - low))));
+            } else {
+                mid = (low + high) >>> 1;
+            }
+            long key = getKey(mid) ^ Long.MIN_VALUE;
+            if (key == target) {
+                return mid;
+            } else if (key < target) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void add (long kmer) {
+        throw new UnsupportedOperationException("The table is read only");
+    }
+
+    @Override
+    public void add (long kmer, long hash) {
+        throw new UnsupportedOperationException("The table is read only");
+    }
+
+    @Override
+    public short get (long kmer) {
+        long idx = find(toStoredForm(kmer));
+        return idx < 0 ? 1 : getCount(idx);
+    }
+
+    /**
+     * Checks if a k-mer was added to the table. Without a bloom filter in the file, only the
+     * k-mers with frequency greater than 1 are found
+     * @param kmer - encoded k-mer
+     * @return true if the k-mer belongs to the table
+     */
+    @Override
+    public boolean contains (long kmer) {
+        kmer = toStoredForm(kmer);
+        if (bloomFilter == null) {
+            return find(kmer) >= 0;
+        }
+        if (getHashingMode() == HashingMode.ROLLING) {
+            return bloomFilter.containsHash(RollingHash.hash(kmer, getK()));
+        }
+        return bloomFilter.contains(kmer);
+    }
+
+    @Override
+    public int getSize () {
+        return (int) Math.min(numEntries, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the estimated false positive rate of the bloom filter, or NaN if the file doesn't include it
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        return bloomFilter == null ? Double.NaN : bloomFilter.getFalsePositiveRate();
+    }
+
+    /**
+     * @return the fill ratio of the bloom filter, or NaN if the file doesn't include it
+     */
+    @Override
+    public double getFillRatio () {
+        return bloomFilter == null ? Double.NaN : bloomFilter.getFillRatio();
+    }
+
+    /**
+     * Applies the consumer to all the k-mers with frequency greater than 1, in increasing order
+     * @param consumer - consumer of the k-mers and their frequencies
+     */
+    @Override
+    public void forEachEncoded (KmerCountMap.EntryConsumer consumer) {
+        for (long i = 0; i < numEntries; i++) {
+            consumer.accept(getKey(i), getCount(i));
+        }
+    }
+
+    @Override
+    BloomFilter<?> getBloomFilter () {
+        return bloomFilter;
+    }
+}
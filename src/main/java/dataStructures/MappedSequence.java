@@ -0,0 +1,141 @@
+package dataStructures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequence that is a view over a region of a ByteBuffer: a window of a file mapped into memory
+ * (see MappedSequenceReader) or a block of bytes read from a stream (see StreamSequenceReader).
+ * It only keeps the offset and length of each field, and the fields are decoded to Strings only when
+ * a getter is called. The bases can be read directly from the buffer (see KmerIterator).
+ * The region of the bases can contain line breaks (FASTA sequences split in several lines),
+ * which are not part of the sequence.
+ */
+public class MappedSequence extends Sequence {
+
+    /**
+     * Buffer that contains the sequence. It's shared by all the sequences of the same region of a file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Positions (absolute indices in the buffer) and lengths of the fields
+     */
+    private final int idOffset;
+    private final int idLength;
+    private final int charactersOffset;
+    private final int charactersLength;
+    private final int scoreOffset;
+    private final int scoreLength;
+
+    /**
+     * Fields decoded on demand
+     */
+    private String id;
+    private String characters;
+    private String score;
+
+    /**
+     * @param buffer - buffer that contains the sequence
+     * @param idOffset - position of the id (without '@' or '>')
+     * @param idLength - length of the id
+     * @param charactersOffset - position of the bases
+     * @param charactersLength - length of the region of the bases, including line breaks
+     * @param scoreOffset - position of the score (quality line of FASTQ)
+     * @param scoreLength - length of the score. 0 if there is no score
+     */
+    public MappedSequence (ByteBuffer buffer, int idOffset, int idLength, int charactersOffset, int charactersLength,
+                           int scoreOffset, int scoreLength) {
+        this.buffer = buffer;
+        this.idOffset = idOffset;
+        this.idLength = idLength;
+        this.charactersOffset = charactersOffset;
+        this.charactersLength = charactersLength;
+        this.scoreOffset = scoreOffset;
+        this.scoreLength = scoreLength;
+    }
+
+    /**
+     * Decodes a region of the buffer as an ASCII String, skipping line breaks
+     * @param offset - position of the region
+     * @param length - length of the region
+     * @return the decoded String
+     */
+    private String decode (int offset, int length) {
+        byte[] bytes = new byte[length];
+        int n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = buffer.get(i);
+            if (b != '\n' && b != '\r') {
+                bytes[n++] = b;
+            }
+        }
+        return new String(bytes, 0, n, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String getId () {
+        if (id == null) {
+            id = decode(idOffset, idLength);
+        }
+        return id;
+    }
+
+    @Override
+    public String getCharacters () {
+        if (characters == null) {
+            characters = decode(charactersOffset, charactersLength);
+        }
+        return characters;
+    }
+
+    @Override
+    public String getScore () {
+        if (score == null) {
+            score = decode(scoreOffset, scoreLength);
+        }
+        return score;
+    }
+
+    /**
+     * @return the buffer that contains the sequence
+     */
+    public ByteBuffer getBuffer () {
+        return buffer;
+    }
+
+    /**
+     * @return position of the bases in the buffer
+     */
+    public int getCharactersOffset () {
+        return charactersOffset;
+    }
+
+    /**
+     * @return length of the region of the bases, including line breaks
+     */
+    public int getCharactersLength () {
+        return charactersLength;
+    }
+
+    /**
+     * @return position of the score in the buffer
+     */
+    public int getScoreOffset () {
+        return scoreOffset;
+    }
+
+    /**
+     * @return length of the score. 0 if there is no score
+     */
+    public int getScoreLength () {
+        return scoreLength;
+    }
+
+    /**
+     * @return number of bytes of the fields in the buffer, including the line breaks of the bases
+     */
+    public int getRecordLength () {
+        return idLength + charactersLength + scoreLength;
+    }
+}
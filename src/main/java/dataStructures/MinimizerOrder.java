@@ -0,0 +1,35 @@
+package dataStructures;
+
+import hashing.MurmurHash3;
+
+/**
+ * Orders of the m-mers used to choose the minimizer of a k-mer (see SuperKmerIterator)
+ */
+public enum MinimizerOrder {
+
+    /**
+     * Lexicographic order of the encoded m-mers. Simple, but m-mers with many A's are chosen
+     * often, so the partitions are unbalanced
+     */
+    LEXICOGRAPHIC,
+
+    /**
+     * Order of the hashes of the encoded m-mers, which behaves like a random order
+     * and gives more balanced partitions
+     */
+    RANDOM;
+
+    /**
+     * Added to the m-mers before hashing them, so the m-mer of A's (0) doesn't hash to 0
+     */
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Gets the value that is compared (unsigned) to order the m-mers
+     * @param mmer - encoded m-mer
+     * @return the value of the m-mer in this order
+     */
+    public long getValue (long mmer) {
+        return this == RANDOM ? MurmurHash3.fmix64(mmer + SEED) : mmer;
+    }
+}
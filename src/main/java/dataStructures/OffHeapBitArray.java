@@ -0,0 +1,165 @@
+package dataStructures;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bit array indexed with longs, whose bits are kept outside of the Java heap: in direct
+ * ByteBuffers or in a file mapped into memory. It can hold billions of bits without
+ * increasing the heap or the work of the garbage collector. The bits are split in chunks
+ * of 1 GB, because a single buffer can't be larger than 2 GB.
+ * The direct memory is released when the array is garbage collected.
+ */
+public class OffHeapBitArray extends BitArray {
+
+    /**
+     * log2 of the number of longs per chunk: 2^27 longs = 1 GB
+     */
+    private static final int LONGS_PER_CHUNK_LOG = 27;
+
+    private static final long LONGS_PER_CHUNK = 1L << LONGS_PER_CHUNK_LOG;
+
+    /**
+     * Chunks of the array. Each long represents 64 bits
+     */
+    private final ByteBuffer[] chunks;
+
+    /**
+     * Creates an array in direct (off-heap) memory. All the bits start as 0
+     * @param size - size of the array; number of bits
+     */
+    public OffHeapBitArray (long size) {
+        super(size, null);
+        long numLongs = getNumLongs(size);
+        this.chunks = new ByteBuffer[getNumChunks(numLongs)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(getChunkBytes(numLongs, i)).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Creates an array backed by a file mapped into memory. If the file is new, all the bits start
+     * as 0; if it exists, the bits are the content of the file. The operating system writes
+     * the changes to the file (see flush)
+     * @param size - size of the array; number of bits
+     * @param filePath - path of the file
+     * @throws IOException if the file can't be created or mapped
+     */
+    public OffHeapBitArray (long size, String filePath) throws IOException {
+        super(size, null);
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(getNumLongs(size) * Long.BYTES);
+            this.chunks = map(channel, 0, size, FileChannel.MapMode.READ_WRITE);
+        }
+    }
+
+    /**
+     * Creates an array backed by a region of a file, e.g. the bloom filter of a
+     * MappedKmerTable. The longs of the region are read in big endian order
+     * @param size - size of the array; number of bits
+     * @param channel - channel of the file. It can be closed after the array is created
+     * @param position - position of the region in the file
+     * @param mode - how the file is mapped (read only or read/write)
+     * @throws IOException if the file can't be mapped
+     */
+    OffHeapBitArray (long size, FileChannel channel, long position, FileChannel.MapMode mode) throws IOException {
+        super(size, null);
+        this.chunks = map(channel, position, size, mode);
+    }
+
+    /**
+     * Maps the region of a file that holds an array of the given size
+     */
+    private static ByteBuffer[] map (FileChannel channel, long position, long size, FileChannel.MapMode mode) throws IOException {
+        long numLongs = getNumLongs(size);
+        ByteBuffer[] chunks = new ByteBuffer[getNumChunks(numLongs)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = channel.map(mode, position + i * LONGS_PER_CHUNK * Long.BYTES, getChunkBytes(numLongs, i));
+        }
+        return chunks;
+    }
+
+    private static long getNumLongs (long size) {
+        return Math.max(1, (size + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    private static int getNumChunks (long numLongs) {
+        return (int) ((numLongs + LONGS_PER_CHUNK - 1) >>> LONGS_PER_CHUNK_LOG);
+    }
+
+    private static int getChunkBytes (long numLongs, int chunk) {
+        return (int) (Math.min(LONGS_PER_CHUNK, numLongs - chunk * LONGS_PER_CHUNK) * Long.BYTES);
+    }
+
+    /**
+     * Gets the buffer that contains a long of the array
+     * @param longIdx - index of the long
+     */
+    private ByteBuffer getChunk (long longIdx) {
+        return chunks[(int) (longIdx >>> LONGS_PER_CHUNK_LOG)];
+    }
+
+    /**
+     * Gets the position in its buffer of a long of the array
+     * @param longIdx - index of the long
+     */
+    private static int getOffset (long longIdx) {
+        return (int) (longIdx & (LONGS_PER_CHUNK - 1)) * Long.BYTES;
+    }
+
+    @Override
+    public boolean get (long idx) {
+        long longIdx = idx >>> 6;
+        return (getChunk(longIdx).getLong(getOffset(longIdx)) & (1L << idx)) != 0;
+    }
+
+    @Override
+    public void set (long idx, boolean bit) {
+        long longIdx = idx >>> 6;
+        ByteBuffer chunk = getChunk(longIdx);
+        int offset = getOffset(longIdx);
+        long segment = chunk.getLong(offset);
+        long mask = 1L << idx;
+        chunk.putLong(offset, bit ? segment | mask : segment & ~mask);
+    }
+
+    @Override
+    public long getLong (long longIdx) {
+        return getChunk(longIdx).getLong(getOffset(longIdx));
+    }
+
+    @Override
+    protected void orLong (long longIdx, long bits) {
+        ByteBuffer chunk = getChunk(longIdx);
+        int offset = getOffset(longIdx);
+        chunk.putLong(offset, chunk.getLong(offset) | bits);
+    }
+
+    @Override
+    public long getCardinality () {
+        long count = 0;
+        for (ByteBuffer chunk : chunks) {
+            for (int offset = 0; offset < chunk.capacity(); offset += Long.BYTES) {
+                count += Long.bitCount(chunk.getLong(offset));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes to the file the changes of an array backed by a file. It does nothing
+     * for arrays in direct memory
+     */
+    public void flush () {
+        for (ByteBuffer chunk : chunks) {
+            if (chunk instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package dataStructures;
+
+import hashing.HashingMode;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bloom filter for encoded k-mers that grows with the input, so it doesn't need the number of
+ * elements in advance. It's a list of BloomFilters: the elements are added to the last one and,
+ * when its fraction of bits set reaches FILL_RATIO_THRESHOLD, a new one is created with
+ * growthFactor times its capacity and tighteningRatio times its error. An element belongs to
+ * the set if any filter contains it. The errors of the filters are
+ * expectedError * (1 - r), expectedError * (1 - r) * r, ..., so the total error stays below
+ * expectedError no matter how many filters are created.
+ * Almeida PS, Baquero C, Preguica N, Hutchison D. Scalable Bloom Filters.
+ * Information Processing Letters 101(6), 2007.
+ */
+public class ScalableBloomFilter implements KmerSet {
+
+    /**
+     * Default values of the constructor parameters
+     */
+    public static final long DEFAULT_INITIAL_CAPACITY = 1L << 20;
+    private static final int DEFAULT_GROWTH_FACTOR = 2;
+    private static final double DEFAULT_TIGHTENING_RATIO = 0.8;
+
+    /**
+     * Fraction of bits set of a filter at which a new filter is created. A BloomFilter with
+     * the optimal number of functions has half of its bits set when it reaches its capacity
+     */
+    private static final double FILL_RATIO_THRESHOLD = 0.5;
+
+    /**
+     * Number of checks of the fill ratio of a filter while it's filled up to its capacity
+     */
+    private static final int CHECKS_PER_FILTER = 16;
+
+    /**
+     * Filters of the set, from the oldest to the newest. Only the last one receives new elements.
+     * The gauges (getSize, getFalsePositiveRate, getBitSize) can be read from other threads
+     * while filters are added, so the list is copied on each (rare) addition
+     */
+    private final List<BloomFilter<String>> filters = new CopyOnWriteArrayList<>();
+
+    /**
+     * How the elements are hashed into the filters
+     */
+    private final HashingMode hashingMode;
+
+    private final int growthFactor;
+    private final double tighteningRatio;
+
+    /**
+     * Capacity and error of the last filter
+     */
+    private long capacity;
+    private double error;
+
+    /**
+     * Last filter, which receives the new elements
+     */
+    private BloomFilter<String> current;
+
+    /**
+     * Number of elements added to the last filter until its fill ratio is checked again
+     */
+    private long untilNextCheck;
+
+    /**
+     * Scalable bloom filter constructor given the number of elements of the first filter and the
+     * maximum probability of false positives of the whole set
+     * @param initialCapacity - Number of elements of the first filter
+     * @param expectedError - Maximum probability of false positives
+     * @param hashingMode - How the elements are hashed
+     */
+    public ScalableBloomFilter (long initialCapacity, double expectedError, HashingMode hashingMode) {
+        this(initialCapacity, expectedError, hashingMode, DEFAULT_GROWTH_FACTOR, DEFAULT_TIGHTENING_RATIO);
+    }
+
+    /**
+     * @param initialCapacity - Number of elements of the first filter
+     * @param expectedError - Maximum probability of false positives
+     * @param hashingMode - How the elements are hashed
+     * @param growthFactor - Capacity of each new filter relative to the previous one (at least 1)
+     * @param tighteningRatio - Error of each new filter relative to the previous one, between 0 and 1
+     */
+    public ScalableBloomFilter (long initialCapacity, double expectedError, HashingMode hashingMode,
+                                int growthFactor, double tighteningRatio) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("The initial capacity must be positive. Given: " + initialCapacity);
+        }
+        if (growthFactor < 1) {
+            throw new IllegalArgumentException("The growth factor must be at least 1. Given: " + growthFactor);
+        }
+        if (tighteningRatio <= 0 || tighteningRatio >= 1) {
+            throw new IllegalArgumentException("The tightening ratio must be between 0 and 1. Given: " + tighteningRatio);
+        }
+        this.hashingMode = hashingMode;
+        this.growthFactor = growthFactor;
+        this.tighteningRatio = tighteningRatio;
+        this.capacity = initialCapacity;
+        this.error = expectedError * (1 - tighteningRatio);
+        addFilter();
+    }
+
+    private void addFilter () {
+        current = new BloomFilter<>(capacity, error, hashingMode);
+        filters.add(current);
+        untilNextCheck = getCheckInterval();
+    }
+
+    private long getCheckInterval () {
+        return Math.max(1, capacity / CHECKS_PER_FILTER);
+    }
+
+    /**
+     * Counts an element added to the last filter, and creates a new filter if the
+     * last one is full
+     */
+    private void onAdded () {
+        if (--untilNextCheck > 0) {
+            return;
+        }
+        if (current.getFillRatio() < FILL_RATIO_THRESHOLD) {
+            untilNextCheck = getCheckInterval();
+            return;
+        }
+        capacity *= growthFactor;
+        error *= tighteningRatio;
+        addFilter();
+    }
+
+    @Override
+    public void add (long kmer) {
+        current.add(kmer);
+        onAdded();
+    }
+
+    @Override
+    public boolean contains (long kmer) {
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            if (filters.get(i).contains(kmer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void addHash (long hash) {
+        current.addHash(hash);
+        onAdded();
+    }
+
+    @Override
+    public boolean containsHash (long hash) {
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            if (filters.get(i).containsHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getSize () {
+        long size = 0;
+        for (BloomFilter<String> filter : filters) {
+            size += filter.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the current probability of false positives: the probability that
+     * at least one of the filters gives a false positive
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        double noFalsePositive = 1;
+        for (BloomFilter<String> filter : filters) {
+            noFalsePositive *= 1 - filter.getFalsePositiveRate();
+        }
+        return 1 - noFalsePositive;
+    }
+
+    /**
+     * @return the number of filters created
+     */
+    public int getNumFilters () {
+        return filters.size();
+    }
+
+    /**
+     * @return the total size in bits of the filters
+     */
+    public long getBitSize () {
+        long bits = 0;
+        for (BloomFilter<String> filter : filters) {
+            bits += filter.getBitArray().getSize();
+        }
+        return bits;
+    }
+}
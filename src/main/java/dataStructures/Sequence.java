@@ -18,6 +18,12 @@ public class Sequence {
         this.score = "";
     }
 
+    /**
+     * Constructor for sequences whose fields are read from other sources (e.g. MappedSequence).
+     * Subclasses must override the getters
+     */
+    protected Sequence () {}
+
     public String getId () {
         return id;
     }
@@ -0,0 +1,146 @@
+package dataStructures;
+
+import hashing.HashingMode;
+import hashing.MurmurHash3;
+
+/**
+ * KmerTable of encoded k-mers split into shards. Each k-mer belongs to the shard given
+ * by the prefix of its hash, and each shard is an independent KmerTable with its own bloom
+ * filter and count map. Different shards can then be filled by different threads
+ * without locks (see ShardedKmerTableBuilder)
+ */
+public class ShardedKmerTable extends KmerTable {
+
+    /**
+     * Tables of the shards
+     */
+    private final KmerTable[] shards;
+
+    /**
+     * @param k - length of the k-mers
+     * @param numShards - number of shards
+     * @param expectedNumEntries - Expected number of k-mers to be added to all the shards
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters
+     */
+    public ShardedKmerTable (int k, int numShards, long expectedNumEntries, double expectedError, HashingMode hashingMode) {
+        super(k, hashingMode);
+        if (numShards <= 0) {
+            throw new IllegalArgumentException("The number of shards must be positive. Given: " + numShards);
+        }
+        long expectedEntriesPerShard = Math.max(1, expectedNumEntries / numShards);
+        this.shards = new KmerTable[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new KmerTable(k, expectedEntriesPerShard, expectedError, hashingMode);
+        }
+    }
+
+    /**
+     * Creates a table over shards that were already filled, e.g. the result of merging
+     * sharded tables (see KmerTableMerger)
+     * @param k - length of the k-mers
+     * @param hashingMode - How the k-mers were hashed into the bloom filters
+     * @param shards - tables of the shards. The k-mers of each one must belong to its shard
+     */
+    ShardedKmerTable (int k, HashingMode hashingMode, KmerTable[] shards) {
+        super(k, hashingMode);
+        this.shards = shards;
+    }
+
+    /**
+     * Gets the shard of an encoded k-mer, from the 32 most significant bits of its hash
+     * @param kmer - encoded k-mer
+     * @return the index of the shard
+     */
+    public int getShardIndex (long kmer) {
+        long prefix = MurmurHash3.fmix64(kmer) >>> 32;
+        return (int) ((prefix * shards.length) >>> 32);
+    }
+
+    /**
+     * @param index - index of the shard
+     * @return the table of the shard
+     */
+    public KmerTable getShard (int index) {
+        return shards[index];
+    }
+
+    /**
+     * @return number of shards
+     */
+    public int getNumShards () {
+        return shards.length;
+    }
+
+    @Override
+    public void add (long kmer) {
+        shards[getShardIndex(kmer)].add(kmer);
+    }
+
+    @Override
+    public void add (long kmer, long hash) {
+        shards[getShardIndex(kmer)].add(kmer, hash);
+    }
+
+    @Override
+    public short get (long kmer) {
+        return shards[getShardIndex(kmer)].get(kmer);
+    }
+
+    @Override
+    public boolean contains (long kmer) {
+        return shards[getShardIndex(kmer)].contains(kmer);
+    }
+
+    @Override
+    public int getSize () {
+        int size = 0;
+        for (KmerTable shard : shards) {
+            size += shard.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return the mean of the estimated false positive rates of the shards
+     */
+    @Override
+    public double getFalsePositiveRate () {
+        double sum = 0;
+        for (KmerTable shard : shards) {
+            sum += shard.getFalsePositiveRate();
+        }
+        return sum / shards.length;
+    }
+
+    /**
+     * @return the mean of the fill ratios of the bloom filters of the shards
+     */
+    @Override
+    public double getFillRatio () {
+        double sum = 0;
+        for (KmerTable shard : shards) {
+            sum += shard.getFillRatio();
+        }
+        return sum / shards.length;
+    }
+
+    /**
+     * @return the mean of the load factors of the count maps of the shards
+     */
+    @Override
+    public double getLoadFactor () {
+        double sum = 0;
+        for (KmerTable shard : shards) {
+            sum += shard.getLoadFactor();
+        }
+        return sum / shards.length;
+    }
+
+    @Override
+    public void forEachEncoded (KmerCountMap.EntryConsumer consumer) {
+        for (KmerTable shard : shards) {
+            shard.forEachEncoded(consumer);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package dataStructures;
+
+import hashing.HashingMode;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fills a ShardedKmerTable from many threads. Each shard is owned by one worker thread,
+ * which is the only one that modifies it, so no locks are needed over the tables.
+ * Reader threads extract the k-mers and give them to a Writer, which groups them by shard
+ * and pushes batches into the queue of each shard. The queues are bounded, so readers
+ * wait when the workers can't keep up.
+ *
+ * Usage:
+ *   builder.start();
+ *   (in each reader thread) Writer writer = builder.newWriter(); writer.add(kmer); ... writer.flush();
+ *   ShardedKmerTable table = builder.finish();
+ */
+public class ShardedKmerTableBuilder {
+
+    /**
+     * Number of k-mers in a batch
+     */
+    private static final int BATCH_SIZE = 4096;
+
+    /**
+     * Number of batches that can wait in the queue of a shard
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Batch that tells a worker to stop
+     */
+    private static final long[] END_OF_INPUT = new long[0];
+
+    /**
+     * Table being filled
+     */
+    private final ShardedKmerTable table;
+
+    /**
+     * If true, the batches contain pairs (k-mer, rolling hash)
+     */
+    private final boolean rolling;
+
+    /**
+     * Queues of batches of each shard
+     */
+    private final BlockingQueue<long[]>[] queues;
+
+    /**
+     * Workers of each shard
+     */
+    private final Thread[] workers;
+
+    /**
+     * First error thrown by a worker
+     */
+    private volatile Throwable workerError;
+
+    /**
+     * If the filling was abandoned (see abort)
+     */
+    private volatile boolean aborted;
+
+    /**
+     * @param k - length of the k-mers
+     * @param numShards - number of shards, and of worker threads
+     * @param expectedNumEntries - Expected number of k-mers to be added to all the shards
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters. With HashingMode.ROLLING
+     *                    the writers must receive the rolling hash of each k-mer
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedKmerTableBuilder (int k, int numShards, long expectedNumEntries, double expectedError, HashingMode hashingMode) {
+        this.table = new ShardedKmerTable(k, numShards, expectedNumEntries, expectedError, hashingMode);
+        this.rolling = hashingMode == HashingMode.ROLLING;
+        this.queues = new BlockingQueue[numShards];
+        this.workers = new Thread[numShards];
+        for (int i = 0; i < numShards; i++) {
+            queues[i] = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            workers[i] = new Thread(createWorker(i), "kmer-shard-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Creates the task that adds to a shard all the batches of its queue
+     * @param index - index of the shard
+     * @return the task of the worker
+     */
+    private Runnable createWorker (int index) {
+        KmerTable shard = table.getShard(index);
+        BlockingQueue<long[]> queue = queues[index];
+        return () -> {
+            try {
+                long[] batch;
+                while ((batch = queue.take()) != END_OF_INPUT) {
+                    // after an error or an abort, keep draining so the readers are not blocked
+                    if (workerError != null || aborted) {
+                        continue;
+                    }
+                    try {
+                        addBatch(shard, batch);
+                    } catch (Throwable e) {
+                        workerError = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Adds a batch of k-mers to a shard
+     * @param shard - table of the shard
+     * @param batch - k-mers, or pairs (k-mer, rolling hash)
+     */
+    private void addBatch (KmerTable shard, long[] batch) {
+        if (rolling) {
+            for (int i = 0; i < batch.length; i += 2) {
+                shard.add(batch[i], batch[i + 1]);
+            }
+        } else {
+            for (long kmer : batch) {
+                shard.add(kmer);
+            }
+        }
+    }
+
+    /**
+     * Starts the worker threads
+     */
+    public void start () {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Creates a writer for a reader thread. A writer must be used by only one thread at a time
+     * @return a new writer
+     */
+    public Writer newWriter () {
+        return new Writer();
+    }
+
+    /**
+     * Waits until the workers add all the pending batches, and stops them. All the writers
+     * must be flushed before calling this method
+     * @return the filled table
+     */
+    public ShardedKmerTable finish () {
+        if (aborted) {
+            throw new IllegalStateException("The builder was aborted");
+        }
+        try {
+            for (BlockingQueue<long[]> queue : queues) {
+                queue.put(END_OF_INPUT);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shard workers", e);
+        }
+        if (workerError != null) {
+            throw new IllegalStateException("A shard worker failed", workerError);
+        }
+        return table;
+    }
+
+    /**
+     * Abandons the filling, e.g. after an error of the readers: the pending batches are discarded and
+     * the workers stop, so their threads don't keep waiting for k-mers. The writers can't send more
+     * batches and finish can't be called. It does nothing if the workers already stopped
+     */
+    public void abort () {
+        aborted = true;
+        for (BlockingQueue<long[]> queue : queues) {
+            queue.clear();
+            while (!queue.offer(END_OF_INPUT)) {
+                queue.poll();
+            }
+        }
+    }
+
+    /**
+     * Groups k-mers by shard and sends them to the shard queues in batches
+     */
+    public class Writer {
+
+        /**
+         * Batch being filled for each shard
+         */
+        private final long[][] batches = new long[queues.length][];
+
+        /**
+         * Number of values in each batch
+         */
+        private final int[] lengths = new int[queues.length];
+
+        private Writer () {}
+
+        /**
+         * Adds an encoded k-mer. Not valid for tables with HashingMode.ROLLING
+         * @param kmer - encoded k-mer
+         */
+        public void add (long kmer) {
+            int shard = table.getShardIndex(kmer);
+            long[] batch = getBatch(shard);
+            batch[lengths[shard]++] = kmer;
+            if (lengths[shard] == batch.length) {
+                send(shard);
+            }
+        }
+
+        /**
+         * Adds an encoded k-mer with its rolling hash. Only for tables with HashingMode.ROLLING
+         * @param kmer - encoded k-mer
+         * @param hash - rolling hash of the k-mer
+         */
+        public void add (long kmer, long hash) {
+            int shard = table.getShardIndex(kmer);
+            long[] batch = getBatch(shard);
+            batch[lengths[shard]++] = kmer;
+            batch[lengths[shard]++] = hash;
+            if (lengths[shard] == batch.length) {
+                send(shard);
+            }
+        }
+
+        private long[] getBatch (int shard) {
+            if (batches[shard] == null) {
+                batches[shard] = new long[rolling ? 2 * BATCH_SIZE : BATCH_SIZE];
+            }
+            return batches[shard];
+        }
+
+        private void send (int shard) {
+            long[] batch = batches[shard];
+            int length = lengths[shard];
+            batches[shard] = null;
+            lengths[shard] = 0;
+            if (workerError != null) {
+                throw new IllegalStateException("A shard worker failed", workerError);
+            }
+            if (aborted) {
+                throw new IllegalStateException("The builder was aborted");
+            }
+            try {
+                queues[shard].put(length == batch.length ? batch : Arrays.copyOf(batch, length));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while sending k-mers to shard " + shard, e);
+            }
+        }
+
+        /**
+         * Sends the k-mers that are still in the batches
+         */
+        public void flush () {
+            for (int shard = 0; shard < batches.length; shard++) {
+                if (lengths[shard] > 0) {
+                    send(shard);
+                }
+            }
+        }
+    }
+}
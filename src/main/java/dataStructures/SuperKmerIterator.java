@@ -0,0 +1,312 @@
+package dataStructures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a sequence into super-k-mers: maximal runs of consecutive k-mers that share the same
+ * minimizer, the smallest m-mer of the k-mer in a given order (see MinimizerOrder). All the k-mers
+ * of a super-k-mer can then be sent at once to the partition chosen by their minimizer, instead of
+ * one by one. The minimizers are updated as the window slides, with a queue of the m-mers of the
+ * window that could still become the minimum.
+ * A super-k-mer has at most MAX_KMERS k-mers, so it's given as two longs: its first k-mer (head)
+ * and the bases that follow it (tail, 2 bits per base, the last base in the least significant bits).
+ *
+ * Usage:
+ *   iterator.reset(sequence);
+ *   while (iterator.next()) { ... iterator.getMinimizer(), iterator.getHead(), iterator.getTail() ... }
+ */
+public class SuperKmerIterator {
+
+    /**
+     * Maximum number of k-mers of a super-k-mer: the tail must fit in a long
+     */
+    public static final int MAX_KMERS = 32;
+
+    /**
+     * Capacity of the queue of m-mers. A window has at most MAX_K m-mers
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Length of the k-mers and of the m-mers
+     */
+    private final int k;
+    private final int m;
+
+    /**
+     * Order of the m-mers
+     */
+    private final MinimizerOrder order;
+
+    /**
+     * If true, each m-mer is replaced by its canonical form (see KmerEncoder.canonical),
+     * so a k-mer and its reverse complement have the same minimizer
+     */
+    private final boolean canonical;
+
+    private final long mMask;
+
+    /**
+     * Gives the k-mers of the sequence
+     */
+    private final KmerIterator kmers;
+
+    /**
+     * Queue of the m-mers of the window whose value increases from the head to the tail,
+     * kept in a ring: m-mers, their values in the order, and their positions
+     */
+    private final long[] queueMmers = new long[QUEUE_CAPACITY];
+    private final long[] queueValues = new long[QUEUE_CAPACITY];
+    private final int[] queuePositions = new int[QUEUE_CAPACITY];
+    private int queueHead;
+    private int queueSize;
+
+    /**
+     * Position of the last k-mer given by kmers
+     */
+    private int previousPosition;
+
+    /**
+     * Current super-k-mer
+     */
+    private int numKmers;
+    private long head;
+    private long tail;
+    private long minimizer;
+    private int position;
+
+    /**
+     * K-mer read after the end of the current super-k-mer, which starts the next one
+     */
+    private boolean hasPending;
+    private long pendingKmer;
+    private long pendingMinimizer;
+    private int pendingPosition;
+
+    /**
+     * @param k - length of the k-mers
+     * @param m - length of the minimizers, between 1 and k
+     * @param order - order of the m-mers
+     * @param canonical - if true, the minimizers are chosen among the canonical m-mers
+     */
+    public SuperKmerIterator (int k, int m, MinimizerOrder order, boolean canonical) {
+        this(k, m, order, canonical, 0);
+    }
+
+    /**
+     * @param k - length of the k-mers
+     * @param m - length of the minimizers, between 1 and k
+     * @param order - order of the m-mers
+     * @param canonical - if true, the minimizers are chosen among the canonical m-mers
+     * @param minQuality - minimum Phred quality of the bases of a k-mer (see KmerIterator). A base of
+     *                   lower quality ends the current super-k-mer. 0 to ignore the qualities
+     */
+    public SuperKmerIterator (int k, int m, MinimizerOrder order, boolean canonical, int minQuality) {
+        if (m <= 0 || m > k) {
+            throw new IllegalArgumentException("The length of the minimizers must be between 1 and k. Given: " + m);
+        }
+        this.kmers = new KmerIterator(k, false, false, minQuality);
+        this.k = k;
+        this.m = m;
+        this.order = order;
+        this.canonical = canonical;
+        this.mMask = KmerEncoder.getMask(m);
+    }
+
+    /**
+     * Starts iterating over a new sequence
+     * @param characters - sequence to process
+     */
+    public void reset (CharSequence characters) {
+        kmers.reset(characters);
+        start();
+    }
+
+    /**
+     * Starts iterating over a sequence stored as ASCII bytes in a buffer
+     * @param buffer - buffer that contains the sequence
+     * @param offset - position of the first base in the buffer
+     * @param length - number of bytes of the sequence, including line breaks
+     */
+    public void reset (ByteBuffer buffer, int offset, int length) {
+        kmers.reset(buffer, offset, length);
+        start();
+    }
+
+    /**
+     * Starts iterating over a sequence (see KmerIterator.reset)
+     * @param sequence - sequence to process
+     */
+    public void reset (Sequence sequence) {
+        kmers.reset(sequence);
+        start();
+    }
+
+    private void start () {
+        this.previousPosition = -2;
+        this.numKmers = 0;
+        this.hasPending = false;
+    }
+
+    /**
+     * Moves to the next super-k-mer
+     * @return true if there is a super-k-mer available, false if the sequence ended
+     */
+    public boolean next () {
+        numKmers = 0;
+        if (hasPending) {
+            startSuperKmer(pendingKmer, pendingMinimizer, pendingPosition);
+            hasPending = false;
+        }
+        while (kmers.next()) {
+            long kmer = kmers.getKmer();
+            int kmerPosition = kmers.getPosition();
+            boolean consecutive = kmerPosition == previousPosition + 1;
+            long kmerMinimizer = updateMinimizer(kmer, kmerPosition, consecutive);
+            if (numKmers == 0) {
+                startSuperKmer(kmer, kmerMinimizer, kmerPosition);
+            } else if (consecutive && kmerMinimizer == minimizer && numKmers < MAX_KMERS) {
+                tail = (tail << 2) | (kmer & 3);
+                numKmers++;
+            } else {
+                hasPending = true;
+                pendingKmer = kmer;
+                pendingMinimizer = kmerMinimizer;
+                pendingPosition = kmerPosition;
+                return true;
+            }
+        }
+        return numKmers > 0;
+    }
+
+    private void startSuperKmer (long kmer, long kmerMinimizer, int kmerPosition) {
+        numKmers = 1;
+        head = kmer;
+        tail = 0;
+        minimizer = kmerMinimizer;
+        position = kmerPosition;
+    }
+
+    /**
+     * Updates the queue of m-mers with the k-mer that starts at the given position
+     * @param kmer - encoded k-mer
+     * @param kmerPosition - position of the k-mer in the sequence
+     * @param consecutive - if the k-mer follows the previous one, so only its last m-mer is new
+     * @return the minimizer of the k-mer
+     */
+    private long updateMinimizer (long kmer, int kmerPosition, boolean consecutive) {
+        if (consecutive) {
+            push(kmer & mMask, kmerPosition + k - m);
+        } else {
+            queueSize = 0;
+            for (int i = 0; i <= k - m; i++) {
+                push((kmer >>> (2 * (k - m - i))) & mMask, kmerPosition + i);
+            }
+        }
+        while (queuePositions[queueHead] < kmerPosition) {
+            queueHead = (queueHead + 1) & (QUEUE_CAPACITY - 1);
+            queueSize--;
+        }
+        previousPosition = kmerPosition;
+        return queueMmers[queueHead];
+    }
+
+    /**
+     * Adds an m-mer to the tail of the queue, removing the m-mers with greater values,
+     * which can't be minimizers anymore
+     */
+    private void push (long mmer, int mmerPosition) {
+        if (canonical) {
+            mmer = KmerEncoder.canonical(mmer, m);
+        }
+        long value = order.getValue(mmer);
+        while (queueSize > 0) {
+            int last = (queueHead + queueSize - 1) & (QUEUE_CAPACITY - 1);
+            if (Long.compareUnsigned(queueValues[last], value) <= 0) {
+                break;
+            }
+            queueSize--;
+        }
+        if (queueSize == 0) {
+            queueHead = 0;
+        }
+        int slot = (queueHead + queueSize) & (QUEUE_CAPACITY - 1);
+        queueMmers[slot] = mmer;
+        queueValues[slot] = value;
+        queuePositions[slot] = mmerPosition;
+        queueSize++;
+    }
+
+    /**
+     * @return the minimizer shared by the k-mers of the current super-k-mer (an encoded m-mer)
+     */
+    public long getMinimizer () {
+        return minimizer;
+    }
+
+    /**
+     * @return the first k-mer of the current super-k-mer
+     */
+    public long getHead () {
+        return head;
+    }
+
+    /**
+     * @return the bases that follow the first k-mer, 2 bits per base. There are getNumKmers() - 1 bases
+     */
+    public long getTail () {
+        return tail;
+    }
+
+    /**
+     * @return the number of k-mers of the current super-k-mer
+     */
+    public int getNumKmers () {
+        return numKmers;
+    }
+
+    /**
+     * @return the index in the sequence where the current super-k-mer starts (line breaks are not counted)
+     */
+    public int getPosition () {
+        return position;
+    }
+
+    /**
+     * @return the number of bases read from the start of the sequence (see KmerIterator.getBasesRead)
+     */
+    public int getBasesRead () {
+        return kmers.getBasesRead();
+    }
+
+    /**
+     * @return the length of the k-mers
+     */
+    public int getK () {
+        return k;
+    }
+
+    /**
+     * @return the length of the minimizers
+     */
+    public int getM () {
+        return m;
+    }
+
+    /**
+     * Gets the i-th k-mer of a super-k-mer
+     * @param head - first k-mer of the super-k-mer
+     * @param tail - bases that follow the first k-mer
+     * @param numKmers - number of k-mers of the super-k-mer
+     * @param i - index of the k-mer, between 0 and numKmers - 1
+     * @param k - length of the k-mers
+     * @return the encoded k-mer
+     */
+    public static long getKmer (long head, long tail, int numKmers, int i, int k) {
+        if (i == 0) {
+            return head;
+        }
+        long following = (tail >>> (2 * (numKmers - 1 - i))) & KmerEncoder.getMask(i);
+        return ((head << (2 * i)) | following) & KmerEncoder.getMask(k);
+    }
+}
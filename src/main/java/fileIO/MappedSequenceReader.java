@@ -0,0 +1,315 @@
+package fileIO;
+
+import dataStructures.MappedSequence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+/**
+ * Reads FASTA or FASTQ files by mapping them into memory (FileChannel.map) and scanning
+ * the bytes for the boundaries of the records. Each record is given as a MappedSequence,
+ * a view over the mapped buffer, so the bases are never decoded to Strings unless a caller asks for it.
+ * Files larger than 2 GB are mapped in consecutive windows; a window always starts
+ * at the beginning of a record.
+ * A file can also be split into byte ranges that start at a record (see split), which can
+ * be read at the same time by different threads.
+ * The sequences are either pushed to a consumer (read) or pulled one at a time from a Cursor (open).
+ */
+public class MappedSequenceReader {
+
+    /**
+     * Default size of the mapped windows: 1 GB
+     */
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Initial size of the region scanned to find the start of a record
+     */
+    private static final int RESYNC_WINDOW_SIZE = 1 << 20;
+
+    /**
+     * Path of the file to read
+     */
+    private final String filePath;
+
+    /**
+     * true if the file is in FASTQ format, false if it's in FASTA format
+     */
+    private final boolean fastq;
+
+    /**
+     * Size of the mapped windows. A window grows if a record doesn't fit in it
+     */
+    private final int windowSize;
+
+    /**
+     * Parser of the records of the mapped windows
+     */
+    private final RecordParser parser;
+
+    public MappedSequenceReader (String filePath, boolean fastq) {
+        this(filePath, fastq, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param filePath - path of the file to read
+     * @param fastq - true if the file is in FASTQ format, false if it's in FASTA format
+     * @param windowSize - size in bytes of the mapped windows
+     */
+    public MappedSequenceReader (String filePath, boolean fastq, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("The window size must be positive. Given: " + windowSize);
+        }
+        this.filePath = filePath;
+        this.fastq = fastq;
+        this.windowSize = windowSize;
+        this.parser = new RecordParser(fastq, filePath);
+    }
+
+    /**
+     * Reads all the sequences of the file
+     * @param consumer - receives each sequence. It returns false to stop reading
+     * @throws IOException if the file can't be read or it's not well formed
+     */
+    public void read (Predicate<? super MappedSequence> consumer) throws IOException {
+        read(0, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Reads the sequences whose record starts in the byte range [start, end) of the file
+     * @param start - position of the first record to read. It must be the start of a record
+     * @param end - position after which no new record is read
+     * @param consumer - receives each sequence. It returns false to stop reading
+     * @throws IOException if the file can't be read or it's not well formed
+     */
+    public void read (long start, long end, Predicate<? super MappedSequence> consumer) throws IOException {
+        try (Cursor cursor = open(start, end)) {
+            MappedSequence sequence;
+            while ((sequence = cursor.next()) != null) {
+                if (!consumer.test(sequence)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a cursor over the sequences whose record starts in the byte range [start, end) of the file.
+     * Unlike read, the sequences are pulled one at a time by the caller
+     * @param start - position of the first record to read. It must be the start of a record
+     * @param end - position after which no new record is read
+     * @return the cursor, which must be closed
+     * @throws IOException if the file can't be opened
+     */
+    public Cursor open (long start, long end) throws IOException {
+        return new Cursor(start, end);
+    }
+
+    /**
+     * Gives the sequences of a byte range of the file one at a time, mapping a new window
+     * when the records of the current one are exhausted. A cursor must be used by only one thread at a time
+     */
+    public class Cursor implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private final long end;
+
+        /**
+         * Position in the file of the current window
+         */
+        private long windowPosition;
+
+        /**
+         * Current window, or null if the next one must be mapped
+         */
+        private MappedByteBuffer buffer;
+        private int limit;
+        private boolean lastWindow;
+
+        /**
+         * Position in the window of the next record
+         */
+        private int p;
+
+        /**
+         * Size of the windows. It grows if a record doesn't fit in a window
+         */
+        private int size = windowSize;
+
+        /**
+         * Receives the sequence parsed by the parser
+         */
+        private MappedSequence parsed;
+        private final Predicate<MappedSequence> receiver = sequence -> {
+            parsed = sequence;
+            return true;
+        };
+
+        private Cursor (long start, long end) throws IOException {
+            this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            this.fileSize = channel.size();
+            this.end = Math.min(end, fileSize);
+            this.windowPosition = start;
+        }
+
+        /**
+         * @return the next sequence, or null if there are no more records in the range
+         * @throws IOException if the file can't be read or it's not well formed
+         */
+        public MappedSequence next () throws IOException {
+            while (true) {
+                if (buffer == null) {
+                    if (windowPosition >= end) {
+                        return null;
+                    }
+                    limit = (int) Math.min(size, fileSize - windowPosition);
+                    lastWindow = windowPosition + limit == fileSize;
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowPosition, limit);
+                    p = 0;
+                }
+                while (p < limit && (buffer.get(p) == '\n' || buffer.get(p) == '\r')) {
+                    p++;
+                }
+                if (p >= limit || windowPosition + p >= end) {
+                    nextWindow();
+                    continue;
+                }
+                int next = parser.parseRecord(buffer, p, limit, lastWindow, windowPosition, receiver);
+                if (next == 0) {
+                    if (p == 0) {
+                        // The record doesn't fit in a whole window
+                        if (size == Integer.MAX_VALUE) {
+                            throw new IOException("Record larger than 2 GB at byte " + windowPosition + " of " + filePath);
+                        }
+                        size = (int) Math.min(2L * size, Integer.MAX_VALUE);
+                    }
+                    nextWindow();
+                    continue;
+                }
+                p = next;
+                MappedSequence sequence = parsed;
+                parsed = null;
+                return sequence;
+            }
+        }
+
+        /**
+         * Moves the next window to the start of the first record that was not parsed
+         */
+        private void nextWindow () {
+            windowPosition += p;
+            buffer = null;
+        }
+
+        @Override
+        public void close () throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Splits the file in byte ranges of similar size, that start at the beginning of a record.
+     * Reading each range [bounds[i], bounds[i + 1]) with read(start, end, consumer) gives
+     * every record of the file exactly once
+     * @param numChunks - number of ranges
+     * @return the bounds of the ranges: numChunks + 1 positions, the first one is 0 and the last one
+     * is the size of the file. Some ranges can be empty
+     * @throws IOException if the file can't be read
+     */
+    public long[] split (int numChunks) throws IOException {
+        if (numChunks <= 0) {
+            throw new IllegalArgumentException("The number of chunks must be positive. Given: " + numChunks);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long[] bounds = new long[numChunks + 1];
+            bounds[numChunks] = fileSize;
+            for (int i = 1; i < numChunks; i++) {
+                long position = Math.max(fileSize / numChunks * i, bounds[i - 1]);
+                bounds[i] = findRecordStart(channel, position, fileSize);
+            }
+            return bounds;
+        }
+    }
+
+    /**
+     * Finds the first record that starts at or after a position of the file. A FASTA record
+     * starts with a line that begins with '>'. A FASTQ record starts with a line that begins with '@'
+     * and whose third line begins with '+' (a quality line can also begin with '@', but then
+     * its third line is a sequence)
+     * @param channel - channel of the file
+     * @param position - position where the search starts
+     * @param fileSize - size of the file
+     * @return the position of the start of the record, or fileSize if there are no more records
+     * @throws IOException if the file can't be read
+     */
+    private long findRecordStart (FileChannel channel, long position, long fileSize) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+        if (position >= fileSize) {
+            return fileSize;
+        }
+        // the byte before the position tells if the position is the start of a line
+        long from = position - 1;
+        int size = RESYNC_WINDOW_SIZE;
+        while (true) {
+            int length = (int) Math.min(size, fileSize - from);
+            boolean reachesEnd = from + length == fileSize;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            boolean undecided = false;
+            for (int i = 1; i < length && !undecided; i++) {
+                if (buffer.get(i - 1) != '\n') {
+                    continue;
+                }
+                byte first = buffer.get(i);
+                if (!fastq && first == '>') {
+                    return from + i;
+                }
+                if (fastq && first == '@') {
+                    int check = checkFASTQRecordStart(buffer, i, length, reachesEnd);
+                    if (check > 0) {
+                        return from + i;
+                    }
+                    undecided = check == 0;
+                }
+            }
+            if (!undecided && reachesEnd) {
+                return fileSize;
+            }
+            if (size == Integer.MAX_VALUE) {
+                throw new IOException("Couldn't find the start of a record after byte " + position + " of " + filePath);
+            }
+            size = (int) Math.min(2L * size, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Checks if a line that begins with '@' is the header of a FASTQ record
+     * @return 1 if it is, -1 if it isn't, 0 if the buffer doesn't have enough lines to decide
+     */
+    private static int checkFASTQRecordStart (ByteBuffer buffer, int start, int limit, boolean reachesEnd) {
+        int headerEnd = RecordParser.findLineEnd(buffer, start, limit);
+        int sequenceEnd = headerEnd < 0 ? -1 : RecordParser.findLineEnd(buffer, headerEnd + 1, limit);
+        if (sequenceEnd < 0 || sequenceEnd + 1 >= limit) {
+            return reachesEnd ? -1 : 0;
+        }
+        return buffer.get(sequenceEnd + 1) == '+' ? 1 : -1;
+    }
+
+    /**
+     * @return the size in bytes of the file
+     * @throws IOException if the file can't be read
+     */
+    public long getFileSize () throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return channel.size();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package fileIO;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * InputStream that decompresses a BGZF file (block gzip, as produced by bgzip) using several threads.
+ * A BGZF file is a series of gzip members of at most 64 KB, each one with the size of the member in
+ * the 'BC' extra field of its header. The compressed blocks are read in order by the thread that
+ * consumes the stream, decompressed in parallel on a pool, and given back in their original order.
+ * A bounded number of blocks is decompressed ahead of the consumer. By default all the streams share
+ * one pool with a thread per core, so reading several files at the same time doesn't multiply the threads.
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+    /**
+     * Size of the fixed part of a gzip header, until XLEN (included)
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of the gzip footer: CRC32 and ISIZE
+     */
+    private static final int FOOTER_SIZE = 8;
+
+    /**
+     * Maximum size of a BGZF block, compressed (BSIZE + 1) and decompressed (ISIZE)
+     */
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Pool shared by the streams that don't get one from the caller
+     */
+    private static final int SHARED_POOL_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService SHARED_POOL = Executors.newFixedThreadPool(SHARED_POOL_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "bgzf-inflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of blocks decompressed ahead per thread
+     */
+    private static final int BLOCKS_AHEAD_PER_THREAD = 4;
+
+    /**
+     * Compressed stream
+     */
+    private final InputStream in;
+
+    /**
+     * Pool that decompresses the blocks. It's not shut down by close, since it can be shared
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Maximum number of blocks being decompressed at the same time
+     */
+    private final int maxBlocksAhead;
+
+    /**
+     * Blocks being decompressed, in the order of the file
+     */
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * Block being consumed and position of the next byte to read
+     */
+    private byte[] current = new byte[0];
+    private int currentPosition = 0;
+
+    /**
+     * True when there are no more compressed blocks to read
+     */
+    private boolean endOfInput = false;
+
+    /**
+     * Creates a stream whose blocks are decompressed on the pool shared by all the streams
+     * @param in - stream of a BGZF file
+     */
+    public ParallelBgzfInputStream (InputStream in) {
+        this(in, SHARED_POOL, SHARED_POOL_THREADS);
+    }
+
+    /**
+     * @param in - stream of a BGZF file
+     * @param pool - pool that decompresses the blocks. The caller shuts it down
+     * @param numThreads - number of threads of the pool, to decide how many blocks are decompressed ahead
+     */
+    public ParallelBgzfInputStream (InputStream in, ExecutorService pool, int numThreads) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive. Given: " + numThreads);
+        }
+        this.in = in;
+        this.pool = pool;
+        this.maxBlocksAhead = numThreads * BLOCKS_AHEAD_PER_THREAD;
+    }
+
+    /**
+     * Checks if a gzip header is the header of a BGZF block: it has an extra field with the subfield 'BC'
+     * @param header - first bytes of the file (at least 18)
+     * @param length - number of bytes available in header
+     * @return true if the file is in BGZF format
+     */
+    public static boolean isBgzfHeader (byte[] header, int length) {
+        if (length < 18 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0) {
+            return false;
+        }
+        return header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+    }
+
+    /**
+     * Reads exactly length bytes from the compressed stream
+     * @return false if the stream ended before reading any byte
+     */
+    private boolean readFully (byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, offset + total, length - total);
+            if (n < 0) {
+                if (total == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated BGZF block");
+            }
+            total += n;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next compressed block and sends it to the pool
+     * @return false if there are no more blocks
+     */
+    private boolean submitNextBlock () throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        if (!readFully(header, 0, HEADER_SIZE)) {
+            return false;
+        }
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        int extraLength = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+        byte[] extra = new byte[extraLength];
+        if (!readFully(extra, 0, extraLength)) {
+            throw new EOFException("Truncated BGZF block");
+        }
+
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extraLength; ) {
+            int subfieldLength = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+            if (i + 4 + subfieldLength > extraLength) {
+                throw new IOException("Invalid BGZF extra field");
+            }
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2) {
+                blockSize = ((extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8)) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        if (blockSize < 0) {
+            throw new IOException("BGZF block without the BC field");
+        }
+
+        int remaining = blockSize - HEADER_SIZE - extraLength;
+        if (remaining < FOOTER_SIZE || remaining > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block size: " + blockSize + " with " + extraLength + " bytes of extra field");
+        }
+        byte[] data = new byte[remaining];
+        if (!readFully(data, 0, remaining)) {
+            throw new EOFException("Truncated BGZF block");
+        }
+        pending.addLast(pool.submit(() -> inflate(data)));
+        return true;
+    }
+
+    /**
+     * Decompresses a block: deflate data followed by CRC32 and ISIZE
+     * @param data - compressed data of the block, with its footer
+     * @return the decompressed bytes
+     */
+    private static byte[] inflate (byte[] data) throws IOException {
+        int dataLength = data.length - FOOTER_SIZE;
+        int expectedCrc = readInt(data, dataLength);
+        int size = readInt(data, dataLength + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block uncompressed size: " + (size & 0xffffffffL));
+        }
+        byte[] output = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, dataLength);
+            int total = 0;
+            while (total < size) {
+                int n = inflater.inflate(output, total, size - total);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("BGZF block shorter than its declared size");
+                }
+                total += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(output, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("CRC mismatch in BGZF block");
+        }
+        return output;
+    }
+
+    private static int readInt (byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8)
+                | ((bytes[offset + 2] & 0xff) << 16) | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Moves to the next decompressed block, keeping the pool busy with the following ones
+     * @return false if there are no more blocks
+     */
+    private boolean nextBlock () throws IOException {
+        while (true) {
+            while (!endOfInput && pending.size() < maxBlocksAhead) {
+                endOfInput = !submitNextBlock();
+            }
+            Future<byte[]> next = pending.pollFirst();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompressing", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            currentPosition = 0;
+            // empty blocks (e.g. the end of file marker) are skipped
+            if (current.length > 0) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int read () throws IOException {
+        if (currentPosition == current.length && !nextBlock()) {
+            return -1;
+        }
+        return current[currentPosition++] & 0xff;
+    }
+
+    @Override
+    public int read (byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (currentPosition == current.length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(length, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, buffer, offset, n);
+        currentPosition += n;
+        return n;
+    }
+
+    @Override
+    public void close () throws IOException {
+        for (Future<byte[]> block : pending) {
+            block.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+}
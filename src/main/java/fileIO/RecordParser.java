@@ -0,0 +1,169 @@
+package fileIO;
+
+import dataStructures.MappedSequence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * Parses FASTA or FASTQ records from the bytes of a buffer, giving each one as a MappedSequence:
+ * a view over the buffer that keeps the position of each field. The buffer can be a window
+ * of a file mapped into memory (see MappedSequenceReader) or a block read from a stream
+ * (see StreamSequenceReader).
+ */
+class RecordParser {
+
+    /**
+     * true if the records are in FASTQ format, false if they are in FASTA format
+     */
+    private final boolean fastq;
+
+    /**
+     * Name of the source of the bytes, for error messages
+     */
+    private final String sourceName;
+
+    /**
+     * @param fastq - true if the records are in FASTQ format, false if they are in FASTA format
+     * @param sourceName - name of the source of the bytes (e.g. a file path), for error messages
+     */
+    RecordParser (boolean fastq, String sourceName) {
+        this.fastq = fastq;
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Parses the record that starts at position p
+     * @param buffer - buffer with the records
+     * @param p - position of the record
+     * @param limit - end of the data in the buffer
+     * @param lastBytes - true if no more data follows the limit
+     * @param bufferPosition - position of the buffer in its source, for error messages
+     * @param consumer - receives the sequence
+     * @return the position after the record, 0 if the record is not complete in the buffer,
+     * or -1 if the consumer stopped the reading
+     * @throws IOException if the record is not well formed
+     */
+    int parseRecord (ByteBuffer buffer, int p, int limit, boolean lastBytes, long bufferPosition,
+                     Predicate<? super MappedSequence> consumer) throws IOException {
+        return fastq
+                ? parseFASTQRecord(buffer, p, limit, lastBytes, bufferPosition, consumer)
+                : parseFASTARecord(buffer, p, limit, lastBytes, bufferPosition, consumer);
+    }
+
+    /**
+     * Finds the next line break
+     * @param buffer - buffer to scan
+     * @param from - position where the search starts
+     * @param limit - end of the data in the buffer
+     * @return the position of the next '\n', or -1 if there is none before limit
+     */
+    static int findLineEnd (ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Length of a line without the final '\r' of Windows line breaks
+     */
+    private static int lineLength (ByteBuffer buffer, int start, int end) {
+        return end > start && buffer.get(end - 1) == '\r' ? end - start - 1 : end - start;
+    }
+
+    /**
+     * Parses a FASTQ record (4 lines) that starts at position p
+     * @return the position after the record, 0 if the record is not complete in the buffer,
+     * or -1 if the consumer stopped the reading
+     */
+    private int parseFASTQRecord (ByteBuffer buffer, int p, int limit, boolean lastWindow, long windowPosition,
+                                  Predicate<? super MappedSequence> consumer) throws IOException {
+        if (buffer.get(p) != '@') {
+            throw new IOException("Invalid FASTQ record at byte " + (windowPosition + p) + " of " + sourceName);
+        }
+        int[] lineEnds = new int[4];
+        int lineStart = p;
+        for (int line = 0; line < 4; line++) {
+            int end = findLineEnd(buffer, lineStart, limit);
+            if (end < 0) {
+                if (!lastWindow) {
+                    return 0;
+                }
+                if (line < 3) {
+                    throw new IOException("Incomplete FASTQ record at byte " + (windowPosition + p) + " of " + sourceName);
+                }
+                end = limit;
+            }
+            lineEnds[line] = end;
+            lineStart = end + 1;
+        }
+        int seqStart = lineEnds[0] + 1;
+        int scoreStart = lineEnds[2] + 1;
+        MappedSequence sequence = new MappedSequence(
+                buffer,
+                p + 1, lineLength(buffer, p + 1, lineEnds[0]),
+                seqStart, lineLength(buffer, seqStart, lineEnds[1]),
+                scoreStart, lineLength(buffer, scoreStart, lineEnds[3])
+        );
+        if (!consumer.test(sequence)) {
+            return -1;
+        }
+        return Math.min(lineEnds[3] + 1, limit);
+    }
+
+    /**
+     * Parses a FASTA record (a header and all the lines until the next header) that starts at position p
+     * @return the position after the record, 0 if the record is not complete in the buffer,
+     * or -1 if the consumer stopped the reading
+     */
+    private int parseFASTARecord (ByteBuffer buffer, int p, int limit, boolean lastWindow, long windowPosition,
+                                  Predicate<? super MappedSequence> consumer) throws IOException {
+        if (buffer.get(p) != '>') {
+            throw new IOException("Invalid FASTA record at byte " + (windowPosition + p) + " of " + sourceName);
+        }
+        int headerEnd = findLineEnd(buffer, p, limit);
+        if (headerEnd < 0) {
+            if (!lastWindow) {
+                return 0;
+            }
+            headerEnd = limit;
+        }
+
+        int seqStart = Math.min(headerEnd + 1, limit);
+        int seqEnd;
+        int next;
+        int from = seqStart;
+        while (true) {
+            int lineEnd = findLineEnd(buffer, from, limit);
+            if (lineEnd < 0 || lineEnd + 1 == limit) {
+                if (!lastWindow) {
+                    return 0;
+                }
+                seqEnd = lineEnd < 0 ? limit : lineEnd;
+                next = limit;
+                break;
+            }
+            if (buffer.get(lineEnd + 1) == '>') {
+                seqEnd = lineEnd;
+                next = lineEnd + 1;
+                break;
+            }
+            from = lineEnd + 1;
+        }
+
+        MappedSequence sequence = new MappedSequence(
+                buffer,
+                p + 1, lineLength(buffer, p + 1, headerEnd),
+                seqStart, Math.max(seqEnd - seqStart, 0),
+                seqEnd, 0
+        );
+        if (!consumer.test(sequence)) {
+            return -1;
+        }
+        return next;
+    }
+}
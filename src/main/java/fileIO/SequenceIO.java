@@ -1,37 +1,198 @@
 package fileIO;
 
-import customRxFuncions.BufferUntil;
+import dataStructures.ApproximateKmerTable;
+import dataStructures.DiskKmerCounter;
+import dataStructures.HyperLogLog;
+import dataStructures.KmerEncoder;
+import dataStructures.KmerIterator;
 import dataStructures.KmerTable;
+import dataStructures.MappedSequence;
+import dataStructures.MinimizerOrder;
 import dataStructures.Sequence;
-import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.core.ObservableOperator;
+import dataStructures.ShardedKmerTableBuilder;
+import dataStructures.SuperKmerIterator;
+import hashing.HashingMode;
+import hashing.MurmurHash3;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Scheduler;
 import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.parallel.ParallelFlowable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import metrics.PipelineMetrics;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 public class SequenceIO {
 
     /**
-     * Custom function that can be applied to an Observable via lift. It divides the emissions
-     * of the observable into segments (Lists); each one progressively constructed with each element
-     * from the observable until one fulfills the predicate
-     * @param predicate - A function A -> Bool, used to partition the observable
-     * @param <A> - The type of the observable
-     * @return Observable of A
+     * Number of sequences that a reader thread processes at once when
+     * the k-mer table is filled in parallel
      */
-    private static <A> ObservableOperator<List<A>, A> bufferUntil (Function<A, Boolean> predicate) {
-        return new BufferUntil<>(predicate);
+    private static final int SEQUENCES_PER_TASK = 64;
+
+    /**
+     * Maximum number of values of a batch of encoded k-mers (see getEncodedKmers)
+     */
+    private static final int KMER_BATCH_SIZE = 4096;
+
+    /**
+     * Number of batches of sequences requested in advance by each rail of the parallel
+     * pipelines, which bounds the sequences held in memory
+     */
+    private static final int RAIL_PREFETCH = 4;
+
+    /**
+     * Number of byte ranges per rail in which a file is split when it's parsed in parallel.
+     * Several ranges per rail balance the work when some ranges are slower than others
+     */
+    private static final int RANGES_PER_RAIL = 4;
+
+    /**
+     * Extension of gzip compressed files
+     */
+    private static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * Size of the buffers used to read files
+     */
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Bytes of a file read to estimate its number of distinct k-mers
+     */
+    private static final long DEFAULT_SAMPLE_BYTES = 64L << 20;
+
+    /**
+     * Number of byte ranges of a file over which the sample of the estimation is spread
+     */
+    private static final int SAMPLE_RANGES = 16;
+
+    /**
+     * Number of bucket files of the first pass of the out of core counting
+     */
+    private static final int DISK_BUCKETS = 256;
+
+    /**
+     * Counters and timers of the pipelines (see PipelineMetrics)
+     */
+    private final PipelineMetrics metrics;
+
+    /**
+     * Minimum Phred quality of the bases of the k-mers that are extracted, or 0 to take all the k-mers
+     */
+    private final int minBaseQuality;
+
+    public SequenceIO () {
+        this(new PipelineMetrics());
+    }
+
+    /**
+     * @param metrics - metrics updated by the pipelines, e.g. registered in JMX or
+     *                reported with a ProgressReporter
+     */
+    public SequenceIO (PipelineMetrics metrics) {
+        this(metrics, 0);
+    }
+
+    /**
+     * Creates a SequenceIO whose pipelines skip the k-mers with bases of low quality. Most of the
+     * distinct k-mers of sequencing reads come from sequencing errors, which tend to have low quality,
+     * so they are dropped before they reach the bloom filter and the count map. The windows that
+     * contain a base other than A, C, G or T (e.g. N) are skipped as well, also when k > 32.
+     * The qualities are the scores of FASTQ (Phred+33); sequences without scores (FASTA) are not filtered
+     * @param metrics - metrics updated by the pipelines
+     * @param minBaseQuality - minimum Phred quality of the bases of a k-mer (e.g. 20), or 0 to take all the k-mers
+     */
+    public SequenceIO (PipelineMetrics metrics, int minBaseQuality) {
+        if (minBaseQuality < 0 || minBaseQuality > KmerIterator.MAX_QUALITY) {
+            throw new IllegalArgumentException("The minimum quality must be between 0 and " + KmerIterator.MAX_QUALITY
+                    + ". Given: " + minBaseQuality);
+        }
+        this.metrics = metrics;
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * @return the metrics updated by the pipelines
+     */
+    public PipelineMetrics getMetrics () {
+        return metrics;
+    }
+
+    /**
+     * @return the minimum Phred quality of the bases of the k-mers, or 0 if the qualities are not checked
+     */
+    public int getMinBaseQuality () {
+        return minBaseQuality;
+    }
+
+    /**
+     * Creates the iterator that extracts the encoded k-mers, which skips the bases of low quality
+     * (see minBaseQuality)
+     * @param k - length of the kmers
+     * @param rolling - If true, the rolling hashes are calculated
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @return the iterator
+     */
+    private KmerIterator newKmerIterator (int k, boolean rolling, boolean canonical) {
+        return new KmerIterator(k, rolling, canonical, minBaseQuality);
+    }
+
+    /**
+     * Checks a base of a sequence whose k-mers are extracted as Strings (k > 32). If the qualities
+     * are not checked, all the bases are accepted
+     * @param characters - bases of the sequence
+     * @param score - qualities of the bases, or null
+     * @param index - index of the base
+     * @return false if the windows that contain the base must be skipped
+     */
+    private boolean isAcceptedBase (String characters, String score, int index) {
+        if (minBaseQuality == 0) {
+            return true;
+        }
+        if (KmerEncoder.encodeBase(characters.charAt(index)) < 0) {
+            return false;
+        }
+        return score == null || index >= score.length()
+                || score.charAt(index) >= KmerIterator.PHRED_OFFSET + minBaseQuality;
+    }
+
+    /**
+     * Measures the time of a Single as a stage of the metrics, from its subscription until it ends
+     * @param stage - stage of the pipeline
+     * @param single - Single to measure
+     * @return the measured Single
+     */
+    private <T> Single<T> timed (PipelineMetrics.Stage stage, Single<T> single) {
+        return Single.defer(() -> {
+            PipelineMetrics.StageTimer timer = metrics.startStage(stage);
+            return single.doFinally(timer::close);
+        });
+    }
+
+    /**
+     * Counts in the metrics a sequence whose k-mers are extracted as Strings. All its windows are
+     * counted, including the ones skipped because of the qualities
+     * @param sequence - sequence processed
+     * @param k - length of the k-mers
+     */
+    private void recordSequence (Sequence sequence, int k) {
+        int length = sequence.getCharacters().length();
+        metrics.recordSequence(length, Math.max(0, length - k + 1));
     }
 
     /**
@@ -47,200 +208,1109 @@ public class SequenceIO {
     }
 
     /**
-     * Creates a sequence from FASTQ information. It assumes that the
-     * received list with the information has 4 lines, following the FASTQ format:
-     * line 1: @{sequence_id}
-     * line 2: {sequence_characters}
-     * line 3: +[{sequence_id}]
-     * line 4: {sequence_score}
-     * @param info - FASTQ information of one sequence
-     * @return A Sequence class
-     */
-    private Sequence sequenceFromFASTQBlock (List<String> info) {
-        String id = info.get(0);
-        String characters = info.get(1);
-        String score = info.get(3);
-        return new Sequence(
-                id.substring(1),
-                characters,
-                score
-        );
+     * Checks if a file is compressed with gzip, from its extension
+     * @param filePath - path of the file
+     * @return true if the file name ends with .gz
+     */
+    private boolean isCompressed (String filePath) {
+        return filePath.endsWith(GZIP_EXTENSION);
     }
 
     /**
-     * Create a reader stream in the form of an Observable
+     * Opens a file for reading. Files compressed with gzip are decompressed while they are read:
+     * BGZF files (block gzip) are decompressed in parallel, on a pool shared by all the files,
+     * and other gzip files with a GZIPInputStream
      * @param filePath - the path of the file to read
-     * @return Observable of the buffered stream
+     * @return stream with the (decompressed) content of the file
+     * @throws IOException if the file can't be opened
      */
-    private Observable<String> createObservableReader (String filePath) {
-        return Observable.using(
-                () -> new BufferedReader(new FileReader(filePath)),
-                reader -> Observable.fromIterable(reader.lines()::iterator),
-                BufferedReader::close
-        );
+    private InputStream openInputStream (String filePath) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(filePath), INPUT_BUFFER_SIZE);
+        if (!isCompressed(filePath)) {
+            return in;
+        }
+        try {
+            byte[] header = new byte[18];
+            in.mark(header.length);
+            int length = 0;
+            int n;
+            while (length < header.length && (n = in.read(header, length, header.length - length)) > 0) {
+                length += n;
+            }
+            in.reset();
+            if (ParallelBgzfInputStream.isBgzfHeader(header, length)) {
+                return new ParallelBgzfInputStream(in);
+            }
+            return new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
     }
 
     /**
-     * Creates an Observable of dataStructures.Sequence from a source file in FASTQ format for further processing
+     * Creates a Flowable of sequences from a FASTA or FASTQ file mapped into memory.
+     * The sequences are views over the mapped bytes (MappedSequence), which are only
+     * decoded to Strings if a getter of the sequence is called
      * @param filePath - the path of the file to read
-     * @return Observable of the sequences read from the file
+     * @param fastq - true if the file is in FASTQ format, false if it's in FASTA format
+     * @return Flowable of the sequences read from the file
      */
-    private Observable<Sequence> readFASTQ (String filePath) {
-        return createObservableReader(filePath)
-                .buffer(4).map(this::sequenceFromFASTQBlock);
+    private Flowable<Sequence> readMapped (String filePath, boolean fastq) {
+        return readMapped(new MappedSequenceReader(filePath, fastq), 0, Long.MAX_VALUE);
     }
 
     /**
-     * Creates an Observable of dataStructures.Sequence from a source file in FASTA format for further processing
+     * Creates a Flowable of the sequences whose record starts in the byte range [start, end) of a file.
+     * Each record is parsed when it's requested (see MappedSequenceReader.Cursor)
+     * @param reader - reader of the file
+     * @param start - position of the first record to read
+     * @param end - position after which no new record is read
+     * @return Flowable of the sequences read from the range
+     */
+    private Flowable<Sequence> readMapped (MappedSequenceReader reader, long start, long end) {
+        return Flowable.generate(
+                () -> reader.open(start, end),
+                (cursor, emitter) -> {
+                    MappedSequence sequence = cursor.next();
+                    if (sequence == null) {
+                        emitter.onComplete();
+                    } else {
+                        emitter.onNext(sequence);
+                    }
+                },
+                MappedSequenceReader.Cursor::close
+        );
+    }
+
+    /**
+     * Creates a Flowable of sequences from a FASTA or FASTQ file that can't be mapped into memory
+     * (e.g. compressed files or pipes). The file is read in blocks of bytes, and the sequences are
+     * views over the blocks (see StreamSequenceReader), like the ones of mapped files
      * @param filePath - the path of the file to read
-     * @return Observable of the sequences read from the file
-     */
-    private Observable<Sequence> readFASTA (String filePath) {
-        Observable<List<String>> lineBlocks = createObservableReader(filePath)
-                .lift(bufferUntil(line -> line.startsWith(">")));
-        return lineBlocks.zipWith(
-                    lineBlocks.skip(1),
-                    (xs, ys) -> Arrays.asList(xs, ys)
-                )
-                .map(
-                    blockPair -> {
-                        List<String> block1 = blockPair.get(0);
-                        List<String> block2 = blockPair.get(1);
-                        String id = block1.get(block1.size() - 1);
-                        String characters = String.join("", block2.subList(0, block2.size() - 1));
-                        return new Sequence(id.substring(1), characters);
+     * @param fastq - true if the file is in FASTQ format, false if it's in FASTA format
+     * @return Flowable of the sequences read from the file
+     */
+    private Flowable<Sequence> readStream (String filePath, boolean fastq) {
+        return Flowable.generate(
+                () -> new StreamSequenceReader(openInputStream(filePath), fastq, filePath),
+                (reader, emitter) -> {
+                    MappedSequence sequence = reader.next();
+                    if (sequence == null) {
+                        emitter.onComplete();
+                    } else {
+                        emitter.onNext(sequence);
                     }
-                );
+                },
+                StreamSequenceReader::close
+        );
     }
 
     /**
-     * Gets the extension of a given file path
+     * Gets the extension of a given file path. For files compressed with gzip,
+     * it's the extension before .gz (e.g. fastq for reads.fastq.gz)
      * @param filePath - path of the file
      * @return the extension of the file
      */
     private String getFileExtension (String filePath) {
         File file = new File(filePath);
         String fileName = file.getName();
+        if (isCompressed(fileName)) {
+            fileName = fileName.substring(0, fileName.length() - GZIP_EXTENSION.length());
+        }
         return fileName.substring(fileName.lastIndexOf(".") + 1);
     }
 
     /**
-     * Reads a file with FASTA or FASTQ format, returning an Observable of the
-     * sequences contained in the file
+     * Reads a file with FASTA or FASTQ format, returning a Flowable of the
+     * sequences contained in the file. Regular files are mapped into memory, and other files
+     * (e.g. pipes) are read in blocks of bytes. Files compressed with gzip (.fa.gz, .fasta.gz,
+     * .fastq.gz) are decompressed while they are read. In all cases the records are parsed at
+     * the byte level, and the sequences are views over the bytes that are only decoded to
+     * Strings if a getter of the sequence is called.
+     * The records are parsed as the sequences are requested, so a slow consumer doesn't
+     * make them accumulate in memory
      * @param filePath - the path of the file to read
-     * @return Observable of dataStructures.Sequence
+     * @return Flowable of dataStructures.Sequence
      */
-    public Observable<Sequence> readFile (String filePath) {
+    public Flowable<Sequence> readFile (String filePath) {
         String extension = getFileExtension(filePath);
+        boolean mappable = isMappable(filePath);
 
         if (extension.equals("fa") || extension.equals("fasta")){
-            return readFASTA(filePath);
+            return mappable ? readMapped(filePath, false) : readStream(filePath, false);
         } else if (extension.equals("fastq")) {
-            return readFASTQ(filePath);
+            return mappable ? readMapped(filePath, true) : readStream(filePath, true);
         } else {
-            return Observable.error(
+            return Flowable.error(
                     new Throwable("The format of the file must be either FASTA or FASTQ and must be explicit in the file extension")
             );
         }
     }
 
     /**
-     * Reads all the files (in FASTA of FASTQ format) from the given list,
-     * and retunrs and Observable with all the sequences contained in all files
-     * @param filePaths - List of files to read
-     * @return Observable with the sequences
+     * Checks if a file can be mapped into memory and split in byte ranges
+     * @param filePath - path of the file
+     * @return true if the file is a regular file that is not compressed
+     */
+    private boolean isMappable (String filePath) {
+        return !isCompressed(filePath) && Files.isRegularFile(Paths.get(filePath));
+    }
+
+    /**
+     * Checks if a file is a FASTA or FASTQ file that can be split in byte ranges
+     * @param filePath - path of the file
+     * @return true if the ranges of the file can be parsed at the same time
+     */
+    private boolean isSplittable (String filePath) {
+        String extension = getFileExtension(filePath);
+        boolean fasta = extension.equals("fa") || extension.equals("fasta");
+        return (fasta || extension.equals("fastq")) && isMappable(filePath);
+    }
+
+    /**
+     * Splits a file in byte ranges that start at a record (see MappedSequenceReader.split)
+     * @param reader - reader of the file
+     * @param numRanges - maximum number of ranges
+     * @return Flowable of the non empty ranges, as pairs [start, end)
      */
-    public Observable<Sequence> readFiles (List<String> filePaths) {
+    private Flowable<long[]> splitFile (MappedSequenceReader reader, int numRanges) {
+        return Flowable.defer(() -> {
+            long[] bounds = reader.split(numRanges);
+            List<long[]> ranges = new ArrayList<>();
+            for (int i = 0; i < numRanges; i++) {
+                if (bounds[i] < bounds[i + 1]) {
+                    ranges.add(new long[] {bounds[i], bounds[i + 1]});
+                }
+            }
+            return Flowable.fromIterable(ranges);
+        });
+    }
+
+    /**
+     * Reads a file with FASTA or FASTQ format using several threads, on the io scheduler
+     * (see readFileParallel(String, int, Scheduler))
+     * @param filePath - the path of the file to read
+     * @param numChunks - number of ranges parsed at the same time
+     * @return Flowable of dataStructures.Sequence
+     */
+    public Flowable<Sequence> readFileParallel (String filePath, int numChunks) {
+        return readFileParallel(filePath, numChunks, Schedulers.io());
+    }
+
+    /**
+     * Reads a file with FASTA or FASTQ format using several threads. The file is split in numChunks
+     * byte ranges, each one starting at a record, and the ranges are parsed at the same time on
+     * the given scheduler. Every record is emitted exactly once, but not in the order of the file.
+     * Each range is parsed only as far as its sequences are requested.
+     * Files that can't be mapped into memory (e.g. pipes or compressed files) are read with readFile
+     * @param filePath - the path of the file to read
+     * @param numChunks - number of ranges parsed at the same time
+     * @param scheduler - scheduler where the ranges are parsed
+     * @return Flowable of dataStructures.Sequence
+     */
+    public Flowable<Sequence> readFileParallel (String filePath, int numChunks, Scheduler scheduler) {
+        if (!isSplittable(filePath)) {
+            return readFile(filePath);
+        }
+        MappedSequenceReader reader = new MappedSequenceReader(filePath, getFileExtension(filePath).equals("fastq"));
+        return splitFile(reader, numChunks).flatMap(
+                range -> readMapped(reader, range[0], range[1]).subscribeOn(scheduler),
+                numChunks
+        );
+    }
+
+    /**
+     * Checks that all the files have the same format
+     * @param filePaths - paths of the files
+     * @return true if all the files have the extension of the first one
+     */
+    private boolean haveSameFormat (List<String> filePaths) {
         String extension = getFileExtension(filePaths.get(0));
-        Boolean allWithSameFormat = filePaths.stream().allMatch(path -> getFileExtension(path).equals(extension));
+        return filePaths.stream().allMatch(path -> getFileExtension(path).equals(extension));
+    }
 
-        if (allWithSameFormat) {
-            return Observable.fromIterable(filePaths).flatMap(this::readFile);
+    /**
+     * Reads all the files (in FASTA of FASTQ format) from the given list,
+     * and retunrs and Flowable with all the sequences contained in all files.
+     * The files are read one after the other
+     * @param filePaths - List of files to read
+     * @return Flowable with the sequences
+     */
+    public Flowable<Sequence> readFiles (List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return Flowable.empty();
+        }
+        if (haveSameFormat(filePaths)) {
+            return Flowable.fromIterable(filePaths).concatMap(this::readFile);
         } else {
-            return Observable.error(
+            return Flowable.error(
                     new Throwable("The given files must be all of the same format (FASTQ or FASTA)")
             );
         }
     }
 
+    /**
+     * Reads several files at the same time on the io scheduler
+     * (see readFiles(List, int, Scheduler))
+     * @param filePaths - List of files to read
+     * @param maxConcurrentFiles - maximum number of files read at the same time
+     * @return Flowable with the sequences
+     */
+    public Flowable<Sequence> readFiles (List<String> filePaths, int maxConcurrentFiles) {
+        return readFiles(filePaths, maxConcurrentFiles, Schedulers.io());
+    }
+
+    /**
+     * Reads all the files (in FASTA or FASTQ format) from the given list, up to maxConcurrentFiles
+     * at the same time, each one on a worker of the scheduler. The largest files are started first,
+     * so a large file doesn't start when the others are finishing and delay the end of the reading.
+     * The sequences of all the files are merged into a single Flowable, which can feed one counting
+     * stage, but the sequences of different files are interleaved. Each file is parsed only as far
+     * as its sequences are requested, so the memory stays bounded when the consumer is slower
+     * @param filePaths - List of files to read
+     * @param maxConcurrentFiles - maximum number of files read at the same time
+     * @param scheduler - scheduler where the files are read, e.g. Schedulers.io()
+     * @return Flowable with the sequences
+     */
+    public Flowable<Sequence> readFiles (List<String> filePaths, int maxConcurrentFiles, Scheduler scheduler) {
+        if (maxConcurrentFiles <= 0) {
+            throw new IllegalArgumentException("The number of concurrent files must be positive. Given: " + maxConcurrentFiles);
+        }
+        if (filePaths.isEmpty()) {
+            return Flowable.empty();
+        }
+        if (!haveSameFormat(filePaths)) {
+            return Flowable.error(
+                    new Throwable("The given files must be all of the same format (FASTQ or FASTA)")
+            );
+        }
+        return Flowable.defer(() -> {
+            List<String> largestFirst = new ArrayList<>(filePaths);
+            largestFirst.sort(Comparator.comparingLong((String path) -> new File(path).length()).reversed());
+            return Flowable.fromIterable(largestFirst).flatMap(
+                    path -> readFile(path).subscribeOn(scheduler),
+                    maxConcurrentFiles
+            );
+        });
+    }
+
+    /**
+     * Lists the regular files of a directory
+     * @param directoryPath - Path of the directory
+     * @return the paths of the files
+     * @throws IOException if the directory can't be listed
+     */
+    private List<String> listFiles (String directoryPath) throws IOException {
+        try (Stream<Path> paths = Files.list(Paths.get(directoryPath))) {
+            return paths.filter(Files::isRegularFile).map(Path::toString).collect(Collectors.toList());
+        }
+    }
+
     /**
      * Reads all the files (in FASTA or FASTQ format) contained in the given
-     * directory, and retunrs and Observable with all the sequences contained in all files
+     * directory, and retunrs and Flowable with all the sequences contained in all files.
+     * As many files as available processors are read at the same time
+     * (see readFiles(List, int, Scheduler))
+     * @param directoryPath - Path of the directory to read
+     * @return Flowable with the sequences
+     */
+    public Flowable<Sequence> readFiles (String directoryPath) {
+        return readFiles(directoryPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads all the files (in FASTA or FASTQ format) contained in the given directory,
+     * up to maxConcurrentFiles at the same time (see readFiles(List, int, Scheduler))
      * @param directoryPath - Path of the directory to read
-     * @return Observable with the sequences
+     * @param maxConcurrentFiles - maximum number of files read at the same time
+     * @return Flowable with the sequences
      */
-    public Observable<Sequence> readFiles (String directoryPath) {
+    public Flowable<Sequence> readFiles (String directoryPath, int maxConcurrentFiles) {
         File dir = new File(directoryPath);
         if(dir.list() == null){
-            return Observable.error(
+            return Flowable.error(
                     new Throwable("The given path to the directory is invalid")
             );
         } else {
             try {
-                Path path = Paths.get(directoryPath);
-                return readFiles(
-                        Files.list(path).map(Path::toString).collect(Collectors.toList())
-                );
+                return readFiles(listFiles(directoryPath), maxConcurrentFiles, Schedulers.io());
             } catch (IOException e) {
-                return Observable.error(e);
+                return Flowable.error(e);
             }
         }
     }
 
     /**
-     * Extracts the kmers of length k from a given sequence
+     * Extracts the kmers of length k from a given sequence. Each k-mer is
+     * created when it's requested. If the qualities are checked, the windows with a base
+     * that is not accepted (see isAcceptedBase) are skipped; each base is checked once,
+     * as the window slides
      * @param sequence - sequence to process
      * @param k - length of the kmer
-     * @return an Observable of all the kmers of the sequence
+     * @return a Flowable of all the kmers of the sequence
      */
-    private Observable<String> getKmersFromSequence (Sequence sequence, int k) {
+    private Flowable<String> getKmersFromSequence (Sequence sequence, int k) {
         String characters = sequence.getCharacters();
         int n = characters.length();
-        ArrayList<String> kmers = new ArrayList<>();
+        Flowable<Integer> starts = Flowable.range(0, Math.max(0, n - k + 1));
+        if (minBaseQuality == 0) {
+            return starts.map(i -> characters.substring(i, i + k));
+        }
+        String score = sequence.getScore();
+        return Flowable.defer(() -> {
+            // next base to check and last base that was not accepted
+            int[] scan = {0, -1};
+            return starts.filter(i -> {
+                for (; scan[0] < i + k; scan[0]++) {
+                    if (!isAcceptedBase(characters, score, scan[0])) {
+                        scan[1] = scan[0];
+                    }
+                }
+                return scan[1] < i;
+            }).map(i -> characters.substring(i, i + k));
+        });
+    }
+
+    /**
+     * From a Flowable source of sequences, reads all the kmers of length k
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @return Flowable with all the kmers from the sequences
+     */
+    public Flowable<String> getAllKmers (Flowable<Sequence> sequences, int k) {
+        return sequences.concatMap(sequence -> getKmersFromSequence(sequence, k));
+    }
+
+    /**
+     * Extracts the encoded k-mers (see KmerEncoder) of the sequences, in batches of up to
+     * KMER_BATCH_SIZE k-mers instead of one emission per k-mer. The sequences are requested
+     * only as the batches are consumed. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @return Flowable with the batches of encoded k-mers
+     */
+    public Flowable<long[]> getEncodedKmers (Flowable<Sequence> sequences, int k, boolean canonical) {
+        return sequences.buffer(SEQUENCES_PER_TASK)
+                .concatMap(batch -> getKmerBatches(batch, k, false, canonical));
+    }
+
+    /**
+     * Extracts the encoded k-mers of the sequences in parallel rails (see getEncodedKmers). The sequences
+     * are dealt in groups of SEQUENCES_PER_TASK to the rails, which extract the k-mers on the given
+     * scheduler. Each rail requests at most RAIL_PREFETCH groups in advance. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @param parallelism - number of rails
+     * @param scheduler - scheduler where the k-mers are extracted, e.g. Schedulers.computation()
+     * @return ParallelFlowable with the batches of encoded k-mers
+     */
+    public ParallelFlowable<long[]> getEncodedKmers (Flowable<Sequence> sequences, int k, boolean canonical,
+                                                     int parallelism, Scheduler scheduler) {
+        return getKmerRails(sequences, k, false, canonical, parallelism, scheduler);
+    }
+
+    /**
+     * Extracts the encoded k-mers of the sequences in parallel rails
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param rolling - If true, each k-mer is followed by its rolling hash in the batches
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @param parallelism - number of rails
+     * @param scheduler - scheduler of the rails
+     * @return ParallelFlowable with the batches
+     */
+    private ParallelFlowable<long[]> getKmerRails (Flowable<Sequence> sequences, int k, boolean rolling, boolean canonical,
+                                                   int parallelism, Scheduler scheduler) {
+        return sequences.buffer(SEQUENCES_PER_TASK)
+                .parallel(parallelism, RAIL_PREFETCH)
+                .runOn(scheduler, RAIL_PREFETCH)
+                .concatMap(batch -> getKmerBatches(batch, k, rolling, canonical));
+    }
 
-        for (int i = 0; i <=n - k; i++) {
-            String kmer = characters.substring(i, i + k);
-            kmers.add(kmer);
+    /**
+     * Extracts the encoded k-mers of a file in parallel rails, which also parse the file: it's split in
+     * RANGES_PER_RAIL byte ranges per rail (see MappedSequenceReader.split), and each rail parses its ranges
+     * and extracts their k-mers on the given scheduler. Files that can't be split (e.g. compressed files)
+     * are parsed by one thread, and only the extraction is done in the rails
+     * @param filePath - the path of the file to read
+     * @param k - length of the kmers
+     * @param rolling - If true, each k-mer is followed by its rolling hash in the batches
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @param parallelism - number of rails
+     * @param scheduler - scheduler of the rails
+     * @return ParallelFlowable with the batches
+     */
+    private ParallelFlowable<long[]> getKmerRails (String filePath, int k, boolean rolling, boolean canonical,
+                                                   int parallelism, Scheduler scheduler) {
+        if (!isSplittable(filePath)) {
+            return getKmerRails(readFile(filePath), k, rolling, canonical, parallelism, scheduler);
         }
-        return Observable.fromIterable(kmers);
+        MappedSequenceReader reader = new MappedSequenceReader(filePath, getFileExtension(filePath).equals("fastq"));
+        return splitFile(reader, parallelism * RANGES_PER_RAIL)
+                .parallel(parallelism, 1)
+                .runOn(scheduler, 1)
+                .concatMap(range -> readMapped(reader, range[0], range[1])
+                        .buffer(SEQUENCES_PER_TASK)
+                        .concatMap(batch -> getKmerBatches(batch, k, rolling, canonical)));
     }
 
     /**
-     * From an Observable source of sequences, reads all the kmers of length k
-     * @param sequences - Observable source of sequences
+     * Extracts the encoded k-mers of a group of sequences, in batches of up to KMER_BATCH_SIZE values.
+     * Each batch is filled when it's requested, and a long sequence is split in several batches
+     * @param sequences - sequences to process
      * @param k - length of the kmers
-     * @return Observable with all the kmers from the sequences
+     * @param rolling - If true, each k-mer is followed by its rolling hash in the batches
+     * @param canonical - If true, the k-mers are given in canonical form
+     * @return Flowable with the batches
+     */
+    private Flowable<long[]> getKmerBatches (List<Sequence> sequences, int k, boolean rolling, boolean canonical) {
+        return Flowable.generate(
+                () -> new KmerBatcher(sequences, newKmerIterator(k, rolling, canonical)),
+                (batcher, emitter) -> {
+                    long[] batch = batcher.next();
+                    if (batch == null) {
+                        emitter.onComplete();
+                    } else {
+                        emitter.onNext(batch);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Fills batches with the encoded k-mers of a group of sequences, one batch at a time.
+     * The sequences are counted in the metrics as their k-mers are extracted
+     */
+    private class KmerBatcher {
+
+        private final List<Sequence> sequences;
+        private final KmerIterator iterator;
+
+        /**
+         * Index of the next sequence
+         */
+        private int index;
+
+        /**
+         * If true, the iterator is in the middle of a sequence
+         */
+        private boolean inSequence;
+
+        /**
+         * Number of k-mers extracted from the current sequence
+         */
+        private long numKmers;
+
+        private KmerBatcher (List<Sequence> sequences, KmerIterator iterator) {
+            this.sequences = sequences;
+            this.iterator = iterator;
+        }
+
+        /**
+         * @return the next batch: k-mers, or pairs (k-mer, rolling hash) if the iterator calculates
+         * the rolling hashes. Null if there are no more k-mers
+         */
+        private long[] next () {
+            boolean rolling = iterator.hasRollingHash();
+            long[] batch = new long[KMER_BATCH_SIZE];
+            int length = 0;
+            while (length < batch.length) {
+                if (!inSequence) {
+                    if (index == sequences.size()) {
+                        break;
+                    }
+                    iterator.reset(sequences.get(index++));
+                    inSequence = true;
+                    numKmers = 0;
+                }
+                if (!iterator.next()) {
+                    metrics.recordSequence(iterator.getBasesRead(), numKmers);
+                    inSequence = false;
+                    continue;
+                }
+                batch[length++] = iterator.getKmer();
+                if (rolling) {
+                    batch[length++] = iterator.getHash();
+                }
+                numKmers++;
+            }
+            if (length == 0) {
+                return null;
+            }
+            return length == batch.length ? batch : Arrays.copyOf(batch, length);
+        }
+    }
+
+    /**
+     * Distinct k-mers of a group of sequences, with the number of k-mers and of bytes
+     * they were taken from
+     */
+    private static class KmerSample {
+
+        private final HyperLogLog sketch = new HyperLogLog();
+
+        /**
+         * Number of k-mers added to the sketch, counting the repeated ones
+         */
+        private long numKmers = 0;
+
+        /**
+         * Number of bytes of the sequences in their file (see getRecordSize)
+         */
+        private long numBytes = 0;
+
+        /**
+         * @return the estimated number of distinct k-mers, which can't be more than the k-mers added
+         */
+        private long estimate () {
+            return Math.min(sketch.estimate(), numKmers);
+        }
+    }
+
+    /**
+     * Adds the k-mers of a sequence to a HyperLogLog sketch
+     * @param sequence - sequence to process
+     * @param k - length of the kmers
+     * @param iterator - iterator used to extract the k-mers if k <= 32, null otherwise
+     * @param sketch - sketch where the k-mers are added
+     * @return the number of k-mers added
+     */
+    private long addKmersToSketch (Sequence sequence, int k, KmerIterator iterator, HyperLogLog sketch) {
+        long numKmers = 0;
+        if (iterator != null) {
+            iterator.reset(sequence);
+            while (iterator.next()) {
+                sketch.add(iterator.getKmer());
+                numKmers++;
+            }
+            return numKmers;
+        }
+        String characters = sequence.getCharacters();
+        String score = sequence.getScore();
+        int lastRejected = -1;
+        for (int end = 0; end < characters.length(); end++) {
+            if (!isAcceptedBase(characters, score, end)) {
+                lastRejected = end;
+            }
+            int i = end - k + 1;
+            if (i < 0 || lastRejected >= i) {
+                continue;
+            }
+            long high = MurmurHash3.murmurhash3_x86_32(characters, i, k, 1);
+            long low = MurmurHash3.murmurhash3_x86_32(characters, i, k, 2);
+            sketch.addHash((high << 32) | (low & 0xffffffffL));
+            numKmers++;
+        }
+        return numKmers;
+    }
+
+    /**
+     * Adds the k-mers of a sequence to a sample
+     * @return the sample
      */
-    public Observable<String> getAllKmers (Observable<Sequence> sequences, int k) {
-        return sequences.flatMap(sequence -> getKmersFromSequence(sequence, k));
+    private KmerSample addToSample (KmerSample sample, Sequence sequence, int k, KmerIterator iterator) {
+        sample.numKmers += addKmersToSketch(sequence, k, iterator, sample.sketch);
+        sample.numBytes += getRecordSize(sequence);
+        return sample;
     }
 
     /**
-     * Get the number of kmers from an Observable source of sequences
-     * @param sequences - Observable of sequences
+     * Estimates the number of distinct k-mers of the sequences with a HyperLogLog sketch
+     * (relative error around 1%), at most the number of k-mers of the sequences. It reads all
+     * the sequences, but the k-mers are only hashed into the sketch, which is much faster than
+     * filling a table
+     * @param sequences - Flowable of sequences
      * @param k - length of each kmer
-     * @return A Single with the number of kmers
+     * @return A Single with the estimated number of distinct kmers
      */
-    public Single<Integer> getNumberOfKmers(Observable<Sequence> sequences, int k) {
-        return sequences.reduce(0, (acc, seq) -> acc + (seq.getCharacters().length() - k) * k);
+    public Single<Long> estimateNumberOfKmers (Flowable<Sequence> sequences, int k) {
+        return timed(PipelineMetrics.Stage.ESTIMATION, Single.defer(() -> {
+            KmerIterator iterator = KmerEncoder.isEncodable(k) ? newKmerIterator(k, false, false) : null;
+            return sequences.reduce(new KmerSample(), (sample, sequence) -> addToSample(sample, sequence, k, iterator))
+                    .map(KmerSample::estimate);
+        }));
     }
 
-    public Single<KmerTable> fillKmerTable (Observable<Sequence> sequences, int k, int expectedNumKmers, double expectedError){
-        return getAllKmers(sequences, k).reduce(new KmerTable(expectedNumKmers, expectedError), (table, kmer) -> {
-            table.add(kmer);
-            System.out.println("Adding (1-mers are omitted). Value: " + table.get(kmer) + " k-mer: " + kmer);
-            return table;
-        });
+    /**
+     * Estimates the number of distinct k-mers of a file from a sample of about sampleBytes bytes,
+     * spread over SAMPLE_RANGES byte ranges of the file: the first sequences of each range.
+     * The distinct k-mers grow sub-linearly with the size of the input when the k-mers repeat
+     * (high coverage), so they are extrapolated from how they grow within the sample: the estimate of
+     * the whole sample is compared with the one of half of its ranges (see extrapolate). The result is
+     * at most the number of k-mers of the file, estimated from the k-mers per byte of the sample.
+     * It's an approximation, not a bound: the estimate is too low if the distinct k-mers are
+     * concentrated between the sampled parts. Compressed files, files that can't be split and files
+     * smaller than the sample are read completely
+     * @param filePath - the path of the file to read
+     * @param k - length of each kmer
+     * @param sampleBytes - number of bytes of the sample
+     * @return A Single with the estimated number of distinct kmers
+     */
+    public Single<Long> estimateNumberOfKmers (String filePath, int k, long sampleBytes) {
+        long fileSize = new File(filePath).length();
+        if (!isSplittable(filePath) || fileSize <= sampleBytes) {
+            return estimateNumberOfKmers(readFile(filePath), k);
+        }
+        return timed(PipelineMetrics.Stage.ESTIMATION, Single.defer(() -> {
+            KmerIterator iterator = KmerEncoder.isEncodable(k) ? newKmerIterator(k, false, false) : null;
+            MappedSequenceReader reader = new MappedSequenceReader(filePath, getFileExtension(filePath).equals("fastq"));
+            long bytesPerRange = Math.max(1, sampleBytes / SAMPLE_RANGES);
+            return splitFile(reader, SAMPLE_RANGES)
+                    .concatMapSingle(range -> {
+                        long[] rangeBytes = {0};
+                        return readMapped(reader, range[0], range[1])
+                                .takeUntil(sequence -> (rangeBytes[0] += getRecordSize(sequence)) >= bytesPerRange)
+                                .reduce(new KmerSample(), (sample, sequence) -> addToSample(sample, sequence, k, iterator));
+                    })
+                    .toList()
+                    .map(samples -> extrapolate(samples, fileSize));
+        }));
     }
 
-    public Single<KmerTable> fillKmerTable (Observable<Sequence> sequences, int k, double expectedError) {
-        return getNumberOfKmers(sequences, k).flatMap(
-                numKmers -> getAllKmers(sequences, k).reduce(new KmerTable(numKmers, expectedError), (table, kmer) -> {
-                    table.add(kmer);
-                    System.out.println("Adding (1-mers are omitted). Value: " + table.get(kmer) + " k-mer: " + kmer);
-                    return table;
-                })
+    /**
+     * Extrapolates the distinct k-mers of the samples of a file to the whole file. They are assumed
+     * to grow as a power of the number of bytes read, d(x) = d(s) * (x / s)^growth, where the growth
+     * is measured between the samples of the even ranges and all of them: 1 when all the k-mers are new
+     * (linear), and near 0 when the sample already has most of the k-mers of the file (high coverage)
+     * @param samples - samples of the ranges of the file, in the order of the file
+     * @param fileSize - size of the file in bytes
+     * @return the estimated number of distinct k-mers of the file
+     */
+    private static long extrapolate (List<KmerSample> samples, long fileSize) {
+        KmerSample all = new KmerSample();
+        KmerSample half = new KmerSample();
+        for (int i = 0; i < samples.size(); i++) {
+            KmerSample sample = samples.get(i);
+            all.sketch.merge(sample.sketch);
+            all.numKmers += sample.numKmers;
+            all.numBytes += sample.numBytes;
+            if (i % 2 == 0) {
+                half.sketch.merge(sample.sketch);
+                half.numKmers += sample.numKmers;
+                half.numBytes += sample.numBytes;
+            }
+        }
+        long distinct = all.estimate();
+        if (all.numBytes == 0 || distinct == 0) {
+            return distinct;
+        }
+        double scale = Math.max(1, fileSize / (double) all.numBytes);
+        double growth = 1;
+        long halfDistinct = half.estimate();
+        if (halfDistinct > 0 && half.numBytes > 0 && half.numBytes < all.numBytes) {
+            growth = Math.log(distinct / (double) halfDistinct) / Math.log(all.numBytes / (double) half.numBytes);
+            growth = Math.min(1, Math.max(0, growth));
+        }
+        double numKmers = all.numKmers * scale;
+        return (long) Math.ceil(Math.min(distinct * Math.pow(scale, growth), numKmers));
+    }
+
+    /**
+     * Approximates the number of bytes of a sequence in its file (without the line breaks of
+     * multi-line FASTA sequences, unless the sequence is a view over the bytes of the file).
+     * The bases of views are not decoded
+     * @param sequence - sequence read from a file
+     * @return the number of bytes
+     */
+    private static long getRecordSize (Sequence sequence) {
+        if (sequence instanceof MappedSequence) {
+            MappedSequence mapped = (MappedSequence) sequence;
+            return mapped.getRecordLength() + (mapped.getScoreLength() > 0 ? 5 : 3);
+        }
+        String score = sequence.getScore();
+        long size = sequence.getId().length() + sequence.getCharacters().length() + 3;
+        return score == null ? size : size + score.length() + 2;
+    }
+
+    /**
+     * Adds to the table all the encoded k-mers of the sequences. The window of each
+     * sequence is slid with the iterator, so no String is created per k-mer
+     * @param sequences - Flowable source of sequences
+     * @param table - table where the k-mers are added. It must store encoded k-mers
+     * @return A Single with the filled table
+     */
+    private Single<KmerTable> fillEncodedKmerTable (Flowable<Sequence> sequences, KmerTable table) {
+        boolean rolling = table.getHashingMode() == HashingMode.ROLLING;
+        KmerIterator iterator = newKmerIterator(table.getK(), rolling, table.isCanonical());
+        return timed(PipelineMetrics.Stage.COUNTING, Single.defer(() -> {
+            metrics.setTable(table);
+            return sequences.reduce(table, (t, sequence) -> {
+                iterator.reset(sequence);
+                long numKmers = 0;
+                while (iterator.next()) {
+                    if (rolling) {
+                        t.add(iterator.getKmer(), iterator.getHash());
+                    } else {
+                        t.add(iterator.getKmer());
+                    }
+                    numKmers++;
+                }
+                metrics.recordSequence(iterator.getBasesRead(), numKmers);
+                return t;
+            });
+        }));
+    }
+
+    /**
+     * Adds to the table all the k-mers of the sequences as Strings (see getAllKmers)
+     * @param sequences - Flowable source of sequences
+     * @param table - table where the k-mers are added
+     * @return A Single with the filled table
+     */
+    private Single<KmerTable> fillStringKmerTable (Flowable<Sequence> sequences, KmerTable table) {
+        int k = table.getK();
+        return timed(PipelineMetrics.Stage.COUNTING, Single.defer(() -> {
+            metrics.setTable(table);
+            return getAllKmers(sequences.doOnNext(sequence -> recordSequence(sequence, k)), k).reduce(table, (t, kmer) -> {
+                t.add(kmer);
+                return t;
+            });
+        }));
+    }
+
+    /**
+     * Fills a k-mer table hashing the k-mers into the bloom filter with the given mode.
+     * With HashingMode.ROLLING (k <= 32) the hash of each window is updated in O(1)
+     * from the previous one, instead of hashing the whole k-mer once per hash function.
+     * With HashingMode.DOUBLE_HASHING each k-mer is hashed only once
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filter
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, long expectedNumKmers, double expectedError, HashingMode hashingMode) {
+        if (hashingMode == HashingMode.SEEDED) {
+            return fillKmerTable(sequences, k, expectedNumKmers, expectedError);
+        }
+        if (!KmerEncoder.isEncodable(k)) {
+            return fillStringKmerTable(sequences, new KmerTable(k, expectedNumKmers, expectedError, hashingMode));
+        }
+        return fillEncodedKmerTable(sequences, new KmerTable(k, expectedNumKmers, expectedError, hashingMode));
+    }
+
+    /**
+     * Fills a k-mer table hashing the k-mers into the bloom filter with the given mode. If canonical
+     * is true, each k-mer is counted together with its reverse complement (see KmerEncoder.canonical),
+     * which is the usual choice for double stranded sequencing data. Both strands are updated as
+     * the window slides, so it costs no extra pass per k-mer. Canonical k-mers need k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filter
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, long expectedNumKmers, double expectedError, HashingMode hashingMode, boolean canonical) {
+        if (!canonical) {
+            return fillKmerTable(sequences, k, expectedNumKmers, expectedError, hashingMode);
+        }
+        return fillEncodedKmerTable(sequences, new KmerTable(k, expectedNumKmers, expectedError, hashingMode, true));
+    }
+
+    /**
+     * Adds all the k-mers of the sequences to the given table. This allows using tables
+     * with other bloom filters, e.g. a BlockedBloomFilter, or with approximate frequencies
+     * (see ApproximateKmerTable)
+     * @param sequences - Flowable source of sequences
+     * @param table - table where the k-mers are added
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, KmerTable table) {
+        if (table.isEncoded()) {
+            return fillEncodedKmerTable(sequences, table);
+        }
+        return fillStringKmerTable(sequences, table);
+    }
+
+    /**
+     * Fills a table with approximate frequencies (see ApproximateKmerTable), whose memory is fixed by
+     * the error and the confidence instead of growing with the number of k-mers. The k-mers are hashed
+     * with rolling hashes. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param epsilon - Maximum overestimate of a frequency, as a fraction of the number of k-mers
+     * @param confidence - Probability that a frequency is within the error
+     * @param canonical - If true, the k-mers are counted in canonical form
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillApproximateKmerTable (Flowable<Sequence> sequences, int k, double epsilon, double confidence, boolean canonical) {
+        return Single.defer(() -> fillEncodedKmerTable(sequences,
+                new ApproximateKmerTable(k, epsilon, confidence, HashingMode.ROLLING, canonical)));
+    }
+
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, long expectedNumKmers, double expectedError){
+        if (KmerEncoder.isEncodable(k)) {
+            return fillEncodedKmerTable(sequences, new KmerTable(k, expectedNumKmers, expectedError));
+        }
+        return fillStringKmerTable(sequences, new KmerTable(k, expectedNumKmers, expectedError));
+    }
+
+    /**
+     * Fills a k-mer table whose bloom filter is sized with an estimate of the number of
+     * distinct k-mers (see estimateNumberOfKmers). The sequences are read twice: once to
+     * estimate, without filling any table, and once to fill the table
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, double expectedError) {
+        return estimateNumberOfKmers(sequences, k).flatMap(
+                numKmers -> fillKmerTable(sequences, k, Math.max(1, numKmers), expectedError)
         );
     }
-}
 
+    /**
+     * Fills a k-mer table in a single pass, without knowing the number of k-mers: the bloom filter
+     * grows as the k-mers are added (see ScalableBloomFilter), keeping the probability of false
+     * positives below expectedError. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedError - Maximum probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, double expectedError, HashingMode hashingMode) {
+        return fillKmerTable(sequences, k, expectedError, hashingMode, false);
+    }
+
+    /**
+     * Fills a k-mer table in a single pass, without knowing the number of k-mers (see
+     * fillKmerTable(Flowable, int, double, HashingMode)). If canonical is true, each k-mer is
+     * counted together with its reverse complement (see KmerEncoder.canonical). Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedError - Maximum probability of false positives of the bloom filter
+     * @param hashingMode - How the k-mers are hashed into the bloom filter
+     * @param canonical - If true, the k-mers are counted in canonical form
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (Flowable<Sequence> sequences, int k, double expectedError, HashingMode hashingMode, boolean canonical) {
+        return fillEncodedKmerTable(sequences, new KmerTable(k, expectedError, hashingMode, canonical));
+    }
+
+    /**
+     * Fills a k-mer table with the sequences of a file. The bloom filter is sized with
+     * an estimate of the number of distinct k-mers taken from a sample spread over the
+     * file (see estimateNumberOfKmers(String, int, long)), so only the sample is read twice
+     * @param filePath - the path of the file to read
+     * @param k - length of the kmers
+     * @param expectedError - Expected probability of false positives of the bloom filter
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTable (String filePath, int k, double expectedError) {
+        return estimateNumberOfKmers(filePath, k, DEFAULT_SAMPLE_BYTES).flatMap(
+                numKmers -> fillKmerTable(readFile(filePath), k, Math.max(1, numKmers), expectedError)
+        );
+    }
+
+    /**
+     * Counts the k-mers of the sequences out of core, for inputs whose k-mers don't fit in memory
+     * (see DiskKmerCounter). The k-mers are first written to bucket files in the work directory,
+     * then the buckets are counted in parallel within the memory budget, and the result is written
+     * to the output file in the binary format of MappedKmerTable. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param canonical - If true, the k-mers are counted in canonical form
+     * @param outputFilePath - path of the table
+     * @param workDirectory - directory of the temporary files
+     * @param memoryBudget - maximum number of bytes used by the buckets
+     * @return A Single with the table, opened from the output file
+     */
+    public Single<KmerTable> countKmersOnDisk (Flowable<Sequence> sequences, int k, boolean canonical,
+                                               String outputFilePath, String workDirectory, long memoryBudget) {
+        return Single.defer(() -> {
+            DiskKmerCounter counter = new DiskKmerCounter(k, canonical, workDirectory, DISK_BUCKETS, memoryBudget,
+                    Runtime.getRuntime().availableProcessors());
+            KmerIterator iterator = newKmerIterator(k, false, canonical);
+            PipelineMetrics.StageTimer partitioning = metrics.startStage(PipelineMetrics.Stage.DISK_PARTITIONING);
+            return sequences.reduce(counter, (c, sequence) -> {
+                iterator.reset(sequence);
+                long numKmers = 0;
+                while (iterator.next()) {
+                    c.add(iterator.getKmer());
+                    numKmers++;
+                }
+                metrics.recordSequence(iterator.getBasesRead(), numKmers);
+                return c;
+            }).doFinally(partitioning::close)
+                    .map(c -> finishOnDisk(c, outputFilePath))
+                    .doOnError(e -> counter.abort())
+                    .doOnDispose(counter::abort);
+        });
+    }
+
+    /**
+     * Counts the k-mers of the sequences out of core like countKmersOnDisk, but each read is split
+     * into super-k-mers: maximal runs of consecutive k-mers with the same minimizer (see
+     * SuperKmerIterator). Each run is written as one record to the bucket chosen by its minimizer,
+     * so the bucket files are several times smaller than with one record per k-mer
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param canonical - If true, the k-mers are counted in canonical form, and the minimizers are
+     *                  chosen among the canonical m-mers
+     * @param outputFilePath - path of the table
+     * @param workDirectory - directory of the temporary files
+     * @param memoryBudget - maximum number of bytes used by the buckets
+     * @param m - length of the minimizers, between 1 and k
+     * @param order - order of the m-mers
+     * @return A Single with the table, opened from the output file
+     */
+    public Single<KmerTable> countKmersOnDisk (Flowable<Sequence> sequences, int k, boolean canonical,
+                                               String outputFilePath, String workDirectory, long memoryBudget,
+                                               int m, MinimizerOrder order) {
+        return Single.defer(() -> {
+            DiskKmerCounter counter = new DiskKmerCounter(k, canonical, workDirectory, DISK_BUCKETS, memoryBudget,
+                    Runtime.getRuntime().availableProcessors());
+            SuperKmerIterator iterator = new SuperKmerIterator(k, m, order, canonical, minBaseQuality);
+            PipelineMetrics.StageTimer partitioning = metrics.startStage(PipelineMetrics.Stage.DISK_PARTITIONING);
+            return sequences.reduce(counter, (c, sequence) -> {
+                iterator.reset(sequence);
+                long numKmers = 0;
+                while (iterator.next()) {
+                    c.add(iterator);
+                    numKmers += iterator.getNumKmers();
+                }
+                metrics.recordSequence(iterator.getBasesRead(), numKmers);
+                return c;
+            }).doFinally(partitioning::close)
+                    .map(c -> finishOnDisk(c, outputFilePath))
+                    .doOnError(e -> counter.abort())
+                    .doOnDispose(counter::abort);
+        });
+    }
+
+    /**
+     * Runs the second pass of the out of core counting, measured as a stage of the metrics
+     * @param counter - counter with all the k-mers
+     * @param outputFilePath - path of the table
+     * @return the table
+     * @throws IOException if the files can't be read or written
+     */
+    private KmerTable finishOnDisk (DiskKmerCounter counter, String outputFilePath) throws IOException {
+        PipelineMetrics.StageTimer timer = metrics.startStage(PipelineMetrics.Stage.DISK_COUNTING);
+        try {
+            KmerTable table = counter.finish(outputFilePath);
+            metrics.setTable(table);
+            return table;
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Gives a batch of encoded k-mers to a writer of a sharded table
+     * @param batch - k-mers, or pairs (k-mer, rolling hash) if rolling is true
+     * @param writer - writer of the sharded table
+     * @param rolling - if true, the rolling hashes are given to the writer
+     */
+    private static void writeBatch (long[] batch, ShardedKmerTableBuilder.Writer writer, boolean rolling) {
+        if (rolling) {
+            for (int i = 0; i < batch.length; i += 2) {
+                writer.add(batch[i], batch[i + 1]);
+            }
+        } else {
+            for (long kmer : batch) {
+                writer.add(kmer);
+            }
+        }
+    }
+
+    /**
+     * Fills a sharded table with the batches of k-mers of parallel rails. Each rail has its own
+     * writer (see ShardedKmerTableBuilder), which is flushed when the rail ends
+     * @param batches - batches of k-mers, with the rolling hashes if the hashing mode is ROLLING
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filters
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters
+     * @param numShards - number of shards (worker threads)
+     * @return A Single with the filled table
+     */
+    private Single<KmerTable> fillShardedKmerTable (ParallelFlowable<long[]> batches, int k, long expectedNumKmers, double expectedError,
+                                                    HashingMode hashingMode, int numShards) {
+        boolean rolling = hashingMode == HashingMode.ROLLING;
+        return this.<KmerTable>timed(PipelineMetrics.Stage.COUNTING, Single.defer(() -> {
+            ShardedKmerTableBuilder builder = new ShardedKmerTableBuilder(k, numShards, expectedNumKmers, expectedError, hashingMode);
+            builder.start();
+            return batches
+                    .reduce(builder::newWriter, (writer, batch) -> {
+                        writeBatch(batch, writer, rolling);
+                        return writer;
+                    })
+                    .sequential()
+                    .doOnNext(ShardedKmerTableBuilder.Writer::flush)
+                    .ignoreElements()
+                    .toSingle(builder::finish)
+                    .doOnError(e -> builder.abort())
+                    .doOnDispose(builder::abort);
+        })).doOnSuccess(metrics::setTable);
+    }
+
+    /**
+     * Fills a k-mer table using several threads, with the readers on the computation scheduler
+     * (see fillKmerTableParallel(Flowable, int, long, double, HashingMode, int, int, Scheduler))
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filters
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters
+     * @param numShards - number of shards (worker threads)
+     * @param numReaders - number of threads extracting k-mers at the same time
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTableParallel (Flowable<Sequence> sequences, int k, long expectedNumKmers, double expectedError,
+                                                    HashingMode hashingMode, int numShards, int numReaders) {
+        return fillKmerTableParallel(sequences, k, expectedNumKmers, expectedError, hashingMode, numShards, numReaders,
+                Schedulers.computation());
+    }
+
+    /**
+     * Fills a k-mer table using several threads. The k-mers are partitioned by hash prefix into
+     * numShards shards, each one with its own bloom filter and count map, owned by one worker thread.
+     * The sequences are dealt in groups to numReaders parallel rails on the given scheduler, which
+     * extract the encoded k-mers in batches and push them into the queues of the shards. The rails
+     * request a bounded number of groups in advance, and block when the queues of the shards are full,
+     * so the memory stays bounded when the input is read faster than it's counted. Only for k <= 32
+     * @param sequences - Flowable source of sequences
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filters
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters
+     * @param numShards - number of shards (worker threads)
+     * @param numReaders - number of threads extracting k-mers at the same time
+     * @param scheduler - scheduler of the readers
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTableParallel (Flowable<Sequence> sequences, int k, long expectedNumKmers, double expectedError,
+                                                    HashingMode hashingMode, int numShards, int numReaders, Scheduler scheduler) {
+        ParallelFlowable<long[]> batches = getKmerRails(sequences, k, hashingMode == HashingMode.ROLLING, false, numReaders, scheduler);
+        return fillShardedKmerTable(batches, k, expectedNumKmers, expectedError, hashingMode, numShards);
+    }
+
+    /**
+     * Fills a k-mer table with the sequences of a file using several threads, like
+     * fillKmerTableParallel(Flowable, ...), but the file is also parsed by the readers: each one parses
+     * its own byte ranges of the file (see readFileParallel). Compressed files are parsed by one thread
+     * @param filePath - the path of the file to read
+     * @param k - length of the kmers
+     * @param expectedNumKmers - Expected number of k-mers, used to size the bloom filters
+     * @param expectedError - Expected probability of false positives of the bloom filters
+     * @param hashingMode - How the k-mers are hashed into the bloom filters
+     * @param numShards - number of shards (worker threads)
+     * @param numReaders - number of threads parsing and extracting k-mers at the same time
+     * @param scheduler - scheduler of the readers
+     * @return A Single with the filled table
+     */
+    public Single<KmerTable> fillKmerTableParallel (String filePath, int k, long expectedNumKmers, double expectedError,
+                                                    HashingMode hashingMode, int numShards, int numReaders, Scheduler scheduler) {
+        ParallelFlowable<long[]> batches = getKmerRails(filePath, k, hashingMode == HashingMode.ROLLING, false, numReaders, scheduler);
+        return fillShardedKmerTable(batches, k, expectedNumKmers, expectedError, hashingMode, numShards);
+    }
+}
@@ -0,0 +1,147 @@
+package fileIO;
+
+import dataStructures.MappedSequence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * Reads FASTA or FASTQ records from a stream that can't be mapped into memory (e.g. a compressed
+ * file or a pipe). The bytes are read in blocks, and each record is given as a MappedSequence,
+ * a view over the block that contains it, so the bases are never decoded to Strings unless a caller
+ * asks for it. A block is shared by all the records that it contains; when a record doesn't end in
+ * a block, only that record is copied to the start of the next one. Blocks grow to hold records
+ * larger than a block (e.g. assembled chromosomes).
+ *
+ * Usage:
+ *   MappedSequence sequence;
+ *   while ((sequence = reader.next()) != null) { ... }
+ */
+public class StreamSequenceReader implements Closeable {
+
+    /**
+     * Default size of the blocks: 1 MB
+     */
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final InputStream in;
+    private final RecordParser parser;
+    private final int blockSize;
+
+    /**
+     * Current block, its data ends at limit
+     */
+    private ByteBuffer block;
+    private int limit;
+
+    /**
+     * Position in the block of the next record
+     */
+    private int p;
+
+    /**
+     * Position in the stream of the current block, for error messages
+     */
+    private long blockPosition;
+
+    /**
+     * true once the end of the stream was reached
+     */
+    private boolean endOfStream;
+
+    /**
+     * Receives the sequence parsed by the parser
+     */
+    private MappedSequence parsed;
+    private final Predicate<MappedSequence> receiver = sequence -> {
+        parsed = sequence;
+        return true;
+    };
+
+    /**
+     * @param in - stream with the records
+     * @param fastq - true if the records are in FASTQ format, false if they are in FASTA format
+     * @param sourceName - name of the stream (e.g. the path of the file), for error messages
+     */
+    public StreamSequenceReader (InputStream in, boolean fastq, String sourceName) {
+        this(in, fastq, sourceName, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param in - stream with the records
+     * @param fastq - true if the records are in FASTQ format, false if they are in FASTA format
+     * @param sourceName - name of the stream (e.g. the path of the file), for error messages
+     * @param blockSize - initial size in bytes of the blocks
+     */
+    public StreamSequenceReader (InputStream in, boolean fastq, String sourceName, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive. Given: " + blockSize);
+        }
+        this.in = in;
+        this.parser = new RecordParser(fastq, sourceName);
+        this.blockSize = blockSize;
+        this.block = ByteBuffer.allocate(blockSize);
+    }
+
+    /**
+     * @return the next sequence, or null if there are no more records
+     * @throws IOException if the stream can't be read or it's not well formed
+     */
+    public MappedSequence next () throws IOException {
+        while (true) {
+            while (p < limit && (block.get(p) == '\n' || block.get(p) == '\r')) {
+                p++;
+            }
+            if (p < limit) {
+                int next = parser.parseRecord(block, p, limit, endOfStream, blockPosition, receiver);
+                if (next > 0) {
+                    p = next;
+                    MappedSequence sequence = parsed;
+                    parsed = null;
+                    return sequence;
+                }
+            } else if (endOfStream) {
+                return null;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Reads more bytes after the unparsed ones. They are read into the free space of the current block;
+     * if it's full, the unparsed bytes are moved to a new block, which is larger if they fill most of it.
+     * The records already given keep the old block
+     * @throws IOException if the stream can't be read
+     */
+    private void fill () throws IOException {
+        if (limit == block.capacity()) {
+            int remaining = limit - p;
+            if (remaining > Integer.MAX_VALUE / 2) {
+                throw new IOException("Record larger than 1 GB at byte " + (blockPosition + p));
+            }
+            ByteBuffer next = ByteBuffer.allocate(Math.max(blockSize, 2 * remaining));
+            System.arraycopy(block.array(), p, next.array(), 0, remaining);
+            blockPosition += p;
+            block = next;
+            limit = remaining;
+            p = 0;
+        }
+        byte[] bytes = block.array();
+        while (limit < bytes.length) {
+            int n = in.read(bytes, limit, bytes.length - limit);
+            if (n < 0) {
+                endOfStream = true;
+                return;
+            }
+            limit += n;
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        in.close();
+    }
+}
@@ -3,6 +3,7 @@ package hashing;
 
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -28,15 +29,62 @@ public class HashingFunctionsHandler {
      * @param upperBound - Limit number that the hashing functions can output
      * @return - A Stream of hashing functions (MurmurHash3)
      */
-    public Stream<Function<String, Integer>> getFunctions (int upperBound) {
+    public Stream<Function<String, Long>> getFunctions (long upperBound) {
+        if (upperBound > Integer.MAX_VALUE) {
+            return getIndependentSeeds().map(
+                    seed -> s -> {
+                        int high = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), seed);
+                        int low = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), seed + numFunctions);
+                        return toIndex(high, low, upperBound);
+                    }
+            );
+        }
         return getIndependentSeeds().map(
                 seed -> s -> {
                     int mmh3 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), seed);
-                    return ( mmh3 >>> 1) % upperBound;
+                    return (long) (( mmh3 >>> 1) % (int) upperBound);
                 }
         );
     }
 
+    /**
+     * Creates a collection of hashing functions for keys encoded as a long
+     * (e.g. 2-bit packed k-mers), given the value of numFunctions.
+     * The functions work over primitives, so applying them doesn't allocate
+     * @param upperBound - Limit number that the hashing functions can output
+     * @return - A Stream of hashing functions (MurmurHash3)
+     */
+    public Stream<LongUnaryOperator> getLongFunctions (long upperBound) {
+        if (upperBound > Integer.MAX_VALUE) {
+            return getIndependentSeeds().map(
+                    seed -> key -> {
+                        int high = MurmurHash3.murmurhash3_x86_32(key, seed);
+                        int low = MurmurHash3.murmurhash3_x86_32(key, seed + numFunctions);
+                        return toIndex(high, low, upperBound);
+                    }
+            );
+        }
+        return getIndependentSeeds().map(
+                seed -> key -> {
+                    int mmh3 = MurmurHash3.murmurhash3_x86_32(key, seed);
+                    return ( mmh3 >>> 1) % (int) upperBound;
+                }
+        );
+    }
+
+    /**
+     * Joins two 32 bit hashes into an index. Used when the upper bound doesn't fit in an int,
+     * so a single 32 bit hash can't reach all the positions
+     * @param high - hash for the 32 high bits
+     * @param low - hash for the 32 low bits
+     * @param upperBound - Limit number that the index can take
+     * @return an index between 0 and upperBound - 1
+     */
+    private static long toIndex (int high, int low, long upperBound) {
+        long combined = ((long) high << 32) | (low & 0xffffffffL);
+        return (combined >>> 1) % upperBound;
+    }
+
     /**
      * Creates a collection of different seeds for the hashing functions
      * @return - A list of seeds for the hashing functions
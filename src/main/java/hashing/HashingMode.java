@@ -0,0 +1,24 @@
+package hashing;
+
+/**
+ * Ways of hashing k-mers into a bloom filter
+ */
+public enum HashingMode {
+
+    /**
+     * One MurmurHash3 evaluation per hash function, each one with a different seed
+     */
+    SEEDED,
+
+    /**
+     * One rolling hash (see RollingHash) that is updated in O(1) as the window
+     * moves along the sequence. The hash functions are derived from it
+     */
+    ROLLING,
+
+    /**
+     * One MurmurHash3 x64_128 evaluation per element. The 128 bits are split in two
+     * hashes h1 and h2, and the i-th hash function is h1 + i*h2 (Kirsch and Mitzenmacher)
+     */
+    DOUBLE_HASHING
+}
@@ -115,6 +115,41 @@ public final class MurmurHash3 {
     }
 
 
+    /** Returns the MurmurHash3_x86_32 hash of a long. This produces the same value as hashing
+     * the 8 bytes of the long in little endian byte order, without creating the byte array.
+     */
+    public static int murmurhash3_x86_32(long data, int seed) {
+
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+
+        int h1 = seed;
+
+        int k1 = (int) data;
+        k1 *= c1;
+        k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
+        k1 *= c2;
+
+        h1 ^= k1;
+        h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
+        h1 = h1*5+0xe6546b64;
+
+        k1 = (int) (data >>> 32);
+        k1 *= c1;
+        k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
+        k1 *= c2;
+
+        h1 ^= k1;
+        h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
+        h1 = h1*5+0xe6546b64;
+
+        // finalization
+        h1 ^= 8;
+
+        return fmix32(h1);
+    }
+
+
     /** Returns the MurmurHash3_x86_32 hash of the UTF-8 bytes of the String without actually encoding
      * the string to a temporary buffer.  This is more than 2x faster than hashing the result
      * of String.getBytes().
@@ -303,4 +338,54 @@ public final class MurmurHash3 {
         out.val2 = h2;
     }
 
+
+    /** Returns the MurmurHash3_x64_128 hash of a long, placing the result in "out". This produces the
+     * same value as hashing the 8 bytes of the long in little endian byte order, without creating the byte array.
+     */
+    public static void murmurhash3_x64_128(long data, int seed, LongPair out) {
+        out.val1 = murmurhash3_x64_128_val1(data, seed);
+        out.val2 = murmurhash3_x64_128_val2(data, seed);
+    }
+
+
+    /** Returns the first 64 bits (val1) of the MurmurHash3_x64_128 hash of a long. Together with
+     * murmurhash3_x64_128_val2, a long can be hashed in a loop without creating a LongPair.
+     */
+    public static long murmurhash3_x64_128_val1(long data, int seed) {
+        long h1 = mixLong(data, seed);
+        long h2 = mixSeed(seed) + h1;
+        return fmix64(h1) + fmix64(h2);
+    }
+
+
+    /** Returns the last 64 bits (val2) of the MurmurHash3_x64_128 hash of a long. */
+    public static long murmurhash3_x64_128_val2(long data, int seed) {
+        long h1 = mixLong(data, seed);
+        long h2 = fmix64(mixSeed(seed) + h1);
+        return fmix64(h1) + 2 * h2;
+    }
+
+
+    /** Mixes the 8 bytes of a long into h1, up to the finalization (h1 += h2) of MurmurHash3_x64_128. */
+    private static long mixLong(long data, int seed) {
+        long h1 = seed & 0x00000000FFFFFFFFL;
+
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+
+        long k1 = data;
+        k1 *= c1; k1  = Long.rotateLeft(k1,31); k1 *= c2; h1 ^= k1;
+
+        h1 ^= 8;
+        return h1 + mixSeed(seed);
+    }
+
+
+    /** Returns h2 of MurmurHash3_x64_128 for 8 bytes of data, before the finalization: no block
+     * or tail is mixed into it, so it only depends on the seed.
+     */
+    private static long mixSeed(int seed) {
+        return (seed & 0x00000000FFFFFFFFL) ^ 8;
+    }
+
 }
\ No newline at end of file
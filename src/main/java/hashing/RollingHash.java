@@ -0,0 +1,116 @@
+package hashing;
+
+/**
+ * Rolling hash for k-mers encoded with 2 bits per base (see dataStructures.KmerEncoder),
+ * based on ntHash:
+ * Mohamadi H, Chu J, Vandervalk BP, Birol I. ntHash: recursive nucleotide hashing.
+ * Bioinformatics 32(22), 2016.
+ *
+ * The hash of a k-mer s_0 .. s_{k-1} is XOR_i rol(seed(s_i), k - 1 - i), so when the window
+ * moves one base, the new hash is obtained in O(1) from the previous one, by rotating it
+ * and removing/adding the seeds of the bases that leave/enter the window.
+ */
+public final class RollingHash {
+
+    /**
+     * Random seeds of the bases, indexed by their 2-bit code: A, C, G, T
+     */
+    private static final long[] SEEDS = {
+            0x3c8bfbb395c60474L,
+            0x3193c18562a02b4cL,
+            0x20323ed082572324L,
+            0x295549f54be24456L
+    };
+
+    /**
+     * Constants used to derive several hashes from a single one
+     */
+    private static final long MULTI_SEED = 0x90b45d39fb6da1faL;
+    private static final int MULTI_SHIFT = 27;
+
+    /**
+     * Length of the k-mers
+     */
+    private final int k;
+
+    /**
+     * Seeds of the bases rotated k positions, which is the contribution of a base
+     * that leaves the window after the hash is rotated
+     */
+    private final long[] outSeeds = new long[SEEDS.length];
+
+    /**
+     * Seeds of the complements of the bases rotated k - 1 positions, which is the contribution
+     * of a base that enters the window to the hash of the reverse complement
+     */
+    private final long[] reverseInSeeds = new long[SEEDS.length];
+
+    public RollingHash (int k) {
+        this.k = k;
+        for (int code = 0; code < SEEDS.length; code++) {
+            outSeeds[code] = Long.rotateLeft(SEEDS[code], k);
+            reverseInSeeds[code] = Long.rotateLeft(SEEDS[code ^ 3], k - 1);
+        }
+    }
+
+    /**
+     * Calculates the hash of a whole k-mer. O(k)
+     * @param kmer - encoded k-mer
+     * @param k - length of the k-mer
+     * @return the hash of the k-mer
+     */
+    public static long hash (long kmer, int k) {
+        long h = 0;
+        for (int i = k - 1; i >= 0; i--) {
+            int code = (int) (kmer >>> (2 * i)) & 3;
+            h = Long.rotateLeft(h, 1) ^ SEEDS[code];
+        }
+        return h;
+    }
+
+    /**
+     * Calculates the hash of the next window in O(1)
+     * @param hash - hash of the current window
+     * @param outCode - code of the first base of the current window, which leaves the window
+     * @param inCode - code of the base that enters the window
+     * @return the hash of the next window
+     */
+    public long roll (long hash, int outCode, int inCode) {
+        return Long.rotateLeft(hash, 1) ^ outSeeds[outCode] ^ SEEDS[inCode];
+    }
+
+    /**
+     * Calculates in O(1) the hash of the reverse complement of the next window, from the hash of the
+     * reverse complement of the current window. The base that enters the window is the first
+     * one of the reverse complement, and the base that leaves it is the last one
+     * @param reverseHash - hash of the reverse complement of the current window
+     * @param outCode - code of the first base of the current window, which leaves the window
+     * @param inCode - code of the base that enters the window
+     * @return the hash of the reverse complement of the next window
+     */
+    public long rollReverse (long reverseHash, int outCode, int inCode) {
+        return Long.rotateRight(reverseHash ^ SEEDS[outCode ^ 3], 1) ^ reverseInSeeds[inCode];
+    }
+
+    /**
+     * Derives the i-th hash of a family of hashes from a single hash value, so
+     * several hash functions can be used while only one hash is rolled
+     * @param hash - base hash
+     * @param i - index of the hash function
+     * @return the i-th hash
+     */
+    public static long multiHash (long hash, int i) {
+        if (i == 0) {
+            return hash;
+        }
+        long h = hash * (i ^ MULTI_SEED);
+        return h ^ (h >>> MULTI_SHIFT);
+    }
+
+    /**
+     * @return the length of the k-mers
+     */
+    public int getK () {
+        return k;
+    }
+}
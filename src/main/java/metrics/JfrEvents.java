@@ -0,0 +1,158 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom JFR (Java Flight Recorder) events of the pipeline: one duration event per stage, and a
+ * periodic progress event. When no recording is running the events cost almost nothing.
+ * This class is compiled against jdk.jfr, so the build needs a JDK with JFR (8u262 or later, and
+ * not --release 8). At runtime, on JVMs without JFR the events are not created, and the classes
+ * that depend on JFR are never loaded.
+ */
+final class JfrEvents {
+
+    private static final String CATEGORY = "K-mer Table";
+
+    /**
+     * If the JVM supports JFR
+     */
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents () {}
+
+    private static boolean isAvailable () {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return FlightRecorder.isAvailable();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts the event of a stage
+     * @param stage - name of the stage
+     * @return the event, which must be given to endStage, or null if JFR isn't available
+     */
+    static Object beginStage (String stage) {
+        return AVAILABLE ? Recorder.beginStage(stage) : null;
+    }
+
+    /**
+     * Ends and commits the event of a stage
+     * @param event - event returned by beginStage
+     */
+    static void endStage (Object event) {
+        if (event != null) {
+            Recorder.endStage(event);
+        }
+    }
+
+    /**
+     * Records a progress event with the metrics periodically, while a recording is running
+     * @param metrics - metrics to record
+     * @return the hook that records the event, to be given to removeProgressHook, or null
+     * if JFR isn't available
+     */
+    static Runnable addProgressHook (PipelineMetrics metrics) {
+        return AVAILABLE ? Recorder.addProgressHook(metrics) : null;
+    }
+
+    /**
+     * Stops recording the progress events of a hook
+     * @param hook - hook returned by addProgressHook
+     */
+    static void removeProgressHook (Runnable hook) {
+        if (hook != null) {
+            FlightRecorder.removePeriodicEvent(hook);
+        }
+    }
+
+    /**
+     * Creates the events. Only loaded if JFR is available
+     */
+    private static final class Recorder {
+
+        static Object beginStage (String stage) {
+            StageEvent event = new StageEvent();
+            event.stage = stage;
+            event.begin();
+            return event;
+        }
+
+        static void endStage (Object event) {
+            StageEvent stageEvent = (StageEvent) event;
+            stageEvent.end();
+            stageEvent.commit();
+        }
+
+        static Runnable addProgressHook (PipelineMetrics metrics) {
+            Runnable hook = () -> {
+                ProgressEvent event = new ProgressEvent();
+                if (!event.isEnabled()) {
+                    return;
+                }
+                event.reads = metrics.getReads();
+                event.bases = metrics.getBases();
+                event.kmers = metrics.getKmers();
+                event.kmersPerSecond = metrics.getKmersPerSecond();
+                event.fillRatio = metrics.getFilterFillRatio();
+                event.falsePositiveRate = metrics.getFalsePositiveRate();
+                event.countMapSize = metrics.getCountMapSize();
+                event.loadFactor = metrics.getCountMapLoadFactor();
+                event.commit();
+            };
+            FlightRecorder.addPeriodicEvent(ProgressEvent.class, hook);
+            return hook;
+        }
+    }
+
+    @Name("kmerTable.Stage")
+    @Label("Pipeline Stage")
+    @Category(CATEGORY)
+    @Description("Time spent in a stage of the k-mer counting pipeline")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+    }
+
+    @Name("kmerTable.Progress")
+    @Label("Counting Progress")
+    @Category(CATEGORY)
+    @Description("Counters and gauges of the k-mer counting pipeline")
+    @StackTrace(false)
+    @Period("10 s")
+    static final class ProgressEvent extends Event {
+        @Label("Reads")
+        long reads;
+
+        @Label("Bases")
+        long bases;
+
+        @Label("K-mers")
+        long kmers;
+
+        @Label("K-mers per Second")
+        double kmersPerSecond;
+
+        @Label("Filter Fill Ratio")
+        double fillRatio;
+
+        @Label("False Positive Rate")
+        double falsePositiveRate;
+
+        @Label("Count Map Size")
+        long countMapSize;
+
+        @Label("Count Map Load Factor")
+        double loadFactor;
+    }
+}
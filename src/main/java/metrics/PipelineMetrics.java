@@ -0,0 +1,237 @@
+package metrics;
+
+import dataStructures.KmerTable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, timers and gauges of the k-mer counting pipeline (see SequenceIO). The counters are
+ * updated once per sequence, not per k-mer, and can be updated from several threads. The gauges
+ * (fill ratio, false positive rate, size and load factor of the count map) are read from the
+ * current table only when they are requested, without synchronization, so they are approximate
+ * while the table is being filled.
+ *
+ * The metrics can be exported through JMX and as JFR events (see register), and printed
+ * periodically with a ProgressReporter.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    /**
+     * Domain of the JMX names of the metrics
+     */
+    public static final String JMX_DOMAIN = "BloomFilterKmerTable";
+
+    /**
+     * Stages of the pipeline whose time is measured. Sequences are parsed as they are consumed,
+     * so the time of a stage includes the parsing of its input
+     */
+    public enum Stage {
+        /**
+         * Estimation of the number of distinct k-mers, used to size the bloom filter
+         */
+        ESTIMATION,
+        /**
+         * Filling of the table
+         */
+        COUNTING,
+        /**
+         * First pass of the out of core counting: writing the bucket files
+         */
+        DISK_PARTITIONING,
+        /**
+         * Second pass of the out of core counting: counting the buckets and merging them
+         */
+        DISK_COUNTING
+    }
+
+    /**
+     * Measures the time of a stage, from its creation until it's closed
+     */
+    public final class StageTimer implements AutoCloseable {
+        private final Stage stage;
+        private final long start;
+        private final Object event;
+        private boolean closed;
+
+        private StageTimer (Stage stage) {
+            this.stage = stage;
+            this.event = JfrEvents.beginStage(stage.name());
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Adds the time since the timer was started to its stage. Only the first call has effect
+         */
+        @Override
+        public void close () {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - start);
+            JfrEvents.endStage(event);
+        }
+    }
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder bases = new LongAdder();
+    private final LongAdder kmers = new LongAdder();
+
+    /**
+     * Time spent in each stage
+     */
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Table being filled, from which the gauges are read
+     */
+    private volatile KmerTable table;
+
+    /**
+     * Name of the metrics in JMX, if they were registered
+     */
+    private ObjectName objectName;
+    private Runnable jfrHook;
+
+    /**
+     * Counts a sequence processed
+     * @param numBases - number of bases of the sequence
+     * @param numKmers - number of k-mers extracted from the sequence
+     */
+    public void recordSequence (long numBases, long numKmers) {
+        reads.increment();
+        bases.add(numBases);
+        kmers.add(numKmers);
+    }
+
+    /**
+     * Starts measuring the time of a stage. Usage:
+     *   try (PipelineMetrics.StageTimer timer = metrics.startStage(Stage.COUNTING)) { ... }
+     * @param stage - stage to measure
+     * @return the timer, which must be closed when the stage ends
+     */
+    public StageTimer startStage (Stage stage) {
+        return new StageTimer(stage);
+    }
+
+    /**
+     * Sets the table from which the gauges are read
+     * @param table - table being filled
+     */
+    public void setTable (KmerTable table) {
+        this.table = table;
+    }
+
+    /**
+     * @return the table from which the gauges are read, or null if there is none
+     */
+    public KmerTable getTable () {
+        return table;
+    }
+
+    @Override
+    public long getReads () {
+        return reads.sum();
+    }
+
+    @Override
+    public long getBases () {
+        return bases.sum();
+    }
+
+    @Override
+    public long getKmers () {
+        return kmers.sum();
+    }
+
+    @Override
+    public double getKmersPerSecond () {
+        double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        return seconds == 0 ? 0 : getKmers() / seconds;
+    }
+
+    @Override
+    public double getFilterFillRatio () {
+        KmerTable current = table;
+        return current == null ? Double.NaN : current.getFillRatio();
+    }
+
+    @Override
+    public double getFalsePositiveRate () {
+        KmerTable current = table;
+        return current == null ? Double.NaN : current.getFalsePositiveRate();
+    }
+
+    @Override
+    public long getCountMapSize () {
+        KmerTable current = table;
+        return current == null ? 0 : current.getSize();
+    }
+
+    @Override
+    public double getCountMapLoadFactor () {
+        KmerTable current = table;
+        return current == null ? Double.NaN : current.getLoadFactor();
+    }
+
+    /**
+     * @param stage - stage of the pipeline
+     * @return nanoseconds spent in the stage
+     */
+    public long getStageNanos (Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    @Override
+    public Map<String, Long> getStageMillis () {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            millis.put(stage.name(), TimeUnit.NANOSECONDS.toMillis(getStageNanos(stage)));
+        }
+        return millis;
+    }
+
+    /**
+     * Exports the metrics through the platform MBean server, with the name
+     * JMX_DOMAIN:type=PipelineMetrics,name=[name]. If JFR is available, a progress event with the
+     * metrics is also recorded periodically while a recording is running
+     * @param name - name that identifies the metrics, e.g. the name of the input
+     * @throws JMException if the metrics can't be registered
+     */
+    public synchronized void register (String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("The metrics are already registered as " + objectName);
+        }
+        ObjectName newName = new ObjectName(JMX_DOMAIN + ":type=PipelineMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+        jfrHook = JfrEvents.addProgressHook(this);
+    }
+
+    /**
+     * Removes the metrics from the MBean server and stops the periodic JFR events
+     * @throws JMException if the metrics can't be unregistered
+     */
+    public synchronized void unregister () throws JMException {
+        if (objectName == null) {
+            return;
+        }
+        JfrEvents.removeProgressHook(jfrHook);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        objectName = null;
+        jfrHook = null;
+    }
+}
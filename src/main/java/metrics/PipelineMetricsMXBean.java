@@ -0,0 +1,54 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * Attributes of PipelineMetrics exported through JMX (e.g. to JConsole or VisualVM)
+ */
+public interface PipelineMetricsMXBean {
+
+    /**
+     * @return number of sequences (reads) processed
+     */
+    long getReads ();
+
+    /**
+     * @return number of bases of the sequences processed
+     */
+    long getBases ();
+
+    /**
+     * @return number of k-mers extracted
+     */
+    long getKmers ();
+
+    /**
+     * @return mean number of k-mers extracted per second since the metrics were created
+     */
+    double getKmersPerSecond ();
+
+    /**
+     * @return fraction of bits set of the bloom filter of the current table, or NaN if unknown
+     */
+    double getFilterFillRatio ();
+
+    /**
+     * @return estimated probability of false positives of the current table, or NaN if unknown
+     */
+    double getFalsePositiveRate ();
+
+    /**
+     * @return number of k-mers with frequency greater than 1 of the current table
+     */
+    long getCountMapSize ();
+
+    /**
+     * @return fraction of occupied slots of the count map of the current table, or NaN if unknown
+     */
+    double getCountMapLoadFactor ();
+
+    /**
+     * @return milliseconds spent in each stage of the pipeline, by stage name
+     */
+    Map<String, Long> getStageMillis ();
+}
@@ -0,0 +1,101 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Prints the metrics of the pipeline periodically from a background thread: reads, bases and
+ * k-mers processed, the k-mers per second since the previous report, the gauges of the table
+ * and the heap in use. The pipeline itself only updates its counters once per sequence.
+ *
+ * Usage:
+ *   try (ProgressReporter reporter = new ProgressReporter(metrics)) { ... run the pipeline ... }
+ */
+public class ProgressReporter implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_SECONDS = 10;
+
+    private final PipelineMetrics metrics;
+    private final Consumer<String> output;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Values of the previous report, to calculate the current rate
+     */
+    private long previousKmers;
+    private long previousNanos;
+
+    /**
+     * Reporter that prints to the standard output every DEFAULT_INTERVAL_SECONDS seconds
+     * @param metrics - metrics to report
+     */
+    public ProgressReporter (PipelineMetrics metrics) {
+        this(metrics, DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS, System.out::println);
+    }
+
+    /**
+     * @param metrics - metrics to report
+     * @param interval - time between reports
+     * @param unit - unit of the interval
+     * @param output - receives the lines of the reports
+     */
+    public ProgressReporter (PipelineMetrics metrics, long interval, TimeUnit unit, Consumer<String> output) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The interval must be positive. Given: " + interval);
+        }
+        this.metrics = metrics;
+        this.output = output;
+        this.previousKmers = metrics.getKmers();
+        this.previousNanos = System.nanoTime();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kmer-progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, interval, interval, unit);
+    }
+
+    /**
+     * Writes a report with the current values of the metrics. An error while reading them is
+     * reported instead, so it doesn't cancel the next reports
+     */
+    public synchronized void report () {
+        try {
+            writeReport();
+        } catch (RuntimeException e) {
+            output.accept("Progress report failed: " + e);
+        }
+    }
+
+    private void writeReport () {
+        long kmers = metrics.getKmers();
+        long now = System.nanoTime();
+        double seconds = (now - previousNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        double rate = seconds == 0 ? 0 : (kmers - previousKmers) / seconds;
+        previousKmers = kmers;
+        previousNanos = now;
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        output.accept(String.format(Locale.ROOT,
+                "reads: %d, bases: %d, k-mers: %d (%.0f k-mers/s), filter fill: %.3f, FPR: %.2e, "
+                        + "count map: %d entries (load %.2f), heap: %d / %d MB",
+                metrics.getReads(), metrics.getBases(), kmers, rate,
+                metrics.getFilterFillRatio(), metrics.getFalsePositiveRate(),
+                metrics.getCountMapSize(), metrics.getCountMapLoadFactor(),
+                heap.getUsed() >> 20, heap.getMax() >> 20
+        ));
+    }
+
+    /**
+     * Stops the reports, writing a last one
+     */
+    @Override
+    public void close () {
+        scheduler.shutdownNow();
+        report();
+    }
+}
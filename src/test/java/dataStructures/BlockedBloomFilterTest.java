@@ -0,0 +1,51 @@
+package dataStructures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The blocked filter must have no false negatives and a false positive rate close to the one
+ * of a BloomFilter of the same size
+ */
+public class BlockedBloomFilterTest {
+
+    private static final int NUM_ELEMENTS = 200000;
+
+    private static final double EXPECTED_ERROR = 0.01;
+
+    @Test
+    public void containsAllTheAddedElements () {
+        BlockedBloomFilter filter = new BlockedBloomFilter(NUM_ELEMENTS, EXPECTED_ERROR);
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            filter.add(i);
+        }
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            assertTrue("element " + i, filter.contains(i));
+        }
+        assertEquals(NUM_ELEMENTS, filter.getSize());
+    }
+
+    @Test
+    public void falsePositiveRateIsCloseToExpected () {
+        BlockedBloomFilter filter = new BlockedBloomFilter(NUM_ELEMENTS, EXPECTED_ERROR);
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            filter.add(i);
+        }
+        int falsePositives = 0;
+        for (long i = NUM_ELEMENTS; i < 2L * NUM_ELEMENTS; i++) {
+            if (filter.contains(i)) {
+                falsePositives++;
+            }
+        }
+        double measured = falsePositives / (double) NUM_ELEMENTS;
+        assertTrue("measured FPR " + measured, measured < 2 * EXPECTED_ERROR);
+        assertEquals(measured, filter.getFalsePositiveRate(), EXPECTED_ERROR / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void filtersLargerThanAnArrayAreRejected () {
+        new BlockedBloomFilter(Long.MAX_VALUE / 2, EXPECTED_ERROR);
+    }
+}
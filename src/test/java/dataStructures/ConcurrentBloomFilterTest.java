@@ -0,0 +1,55 @@
+package dataStructures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Elements added from several threads at the same time must all be found afterwards
+ */
+public class ConcurrentBloomFilterTest {
+
+    private static final int NUM_ELEMENTS = 1000000;
+
+    private static final int NUM_THREADS = 4;
+
+    private static final double EXPECTED_ERROR = 0.01;
+
+    @Test
+    public void containsTheElementsAddedByAllTheThreads () throws InterruptedException {
+        ConcurrentBloomFilter filter = new ConcurrentBloomFilter(NUM_ELEMENTS, EXPECTED_ERROR);
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (long i = first; i < NUM_ELEMENTS; i += NUM_THREADS) {
+                    filter.add(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            assertTrue("element " + i, filter.contains(i));
+        }
+        int falsePositives = 0;
+        for (long i = NUM_ELEMENTS; i < 2L * NUM_ELEMENTS; i++) {
+            if (filter.contains(i)) {
+                falsePositives++;
+            }
+        }
+        double measured = falsePositives / (double) NUM_ELEMENTS;
+        assertTrue("measured FPR " + measured, measured < 2 * EXPECTED_ERROR);
+    }
+
+    @Test
+    public void addIfAbsentIsFalseForElementsInTheFilter () {
+        ConcurrentBloomFilter filter = new ConcurrentBloomFilter(1000, EXPECTED_ERROR);
+        assertTrue(filter.addIfAbsent(42));
+        assertFalse(filter.addIfAbsent(42));
+        assertTrue(filter.contains(42));
+    }
+}
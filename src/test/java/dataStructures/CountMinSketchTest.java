@@ -0,0 +1,58 @@
+package dataStructures;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The estimated frequencies must never be below the exact ones, and their error must stay
+ * within the bound of the sketch
+ */
+public class CountMinSketchTest {
+
+    private static final int NUM_ELEMENTS = 2000000;
+
+    private static final int NUM_DISTINCT = 100000;
+
+    /**
+     * Adds keys with skewed frequencies: small keys are much more frequent
+     * @return the exact frequency of each key
+     */
+    private static int[] addSkewedKeys (CountMinSketch sketch) {
+        Random random = new Random(42);
+        int[] exact = new int[NUM_DISTINCT];
+        for (int i = 0; i < NUM_ELEMENTS; i++) {
+            int key = (int) (NUM_DISTINCT * Math.pow(random.nextDouble(), 3));
+            exact[key]++;
+            sketch.add(key);
+        }
+        return exact;
+    }
+
+    @Test
+    public void estimatesAreNeverBelowTheExactFrequencies () {
+        CountMinSketch sketch = new CountMinSketch(1e-5, 0.99);
+        int[] exact = addSkewedKeys(sketch);
+        for (int key = 0; key < NUM_DISTINCT; key++) {
+            int expected = Math.min(exact[key], Short.MAX_VALUE);
+            assertTrue("key " + key + ": " + sketch.get(key) + " < " + expected, sketch.get(key) >= expected);
+        }
+    }
+
+    @Test
+    public void errorIsWithinTheBound () {
+        CountMinSketch sketch = new CountMinSketch(1e-5, 0.99);
+        int[] exact = addSkewedKeys(sketch);
+        long overBound = 0;
+        for (int key = 0; key < NUM_DISTINCT; key++) {
+            if (sketch.get(key) - Math.min(exact[key], Short.MAX_VALUE) > sketch.getErrorBound()) {
+                overBound++;
+            }
+        }
+        assertTrue("keys over the bound: " + overBound, overBound <= NUM_DISTINCT * 0.01);
+        assertTrue("measured error " + sketch.getMeasuredError() + " > bound " + sketch.getErrorBound(),
+                sketch.getMeasuredError() <= sketch.getErrorBound());
+    }
+}
@@ -0,0 +1,48 @@
+package dataStructures;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The estimates must be within a few standard deviations of the number of distinct elements
+ */
+public class HyperLogLogTest {
+
+    private static final int[] NUM_DISTINCT = {100, 10000, 1000000};
+
+    /**
+     * Allowed error, in standard deviations of the sketch
+     */
+    private static final double MAX_DEVIATIONS = 4;
+
+    @Test
+    public void estimateIsCloseToTheNumberOfDistinctElements () {
+        Random random = new Random(42);
+        for (int n : NUM_DISTINCT) {
+            HyperLogLog sketch = new HyperLogLog();
+            long start = random.nextLong();
+            for (int i = 0; i < n; i++) {
+                sketch.add(start + i);
+                sketch.add(start + random.nextInt(n));
+            }
+            assertEquals("distinct: " + n, n, sketch.estimate(), n * MAX_DEVIATIONS * sketch.getRelativeError());
+        }
+    }
+
+    @Test
+    public void mergedSketchEstimatesTheUnion () {
+        int n = 100000;
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (long i = 0; i < n; i++) {
+            first.add(i);
+            second.add(i + n / 2);
+        }
+        first.merge(second);
+        double union = 1.5 * n;
+        assertEquals(union, first.estimate(), union * MAX_DEVIATIONS * first.getRelativeError());
+    }
+}
@@ -0,0 +1,38 @@
+package dataStructures;
+
+import hashing.HashingMode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A scalable filter must keep its false positive rate below the expected error
+ * while it grows past its initial capacity
+ */
+public class ScalableBloomFilterTest {
+
+    private static final int NUM_ELEMENTS = 1000000;
+
+    private static final double EXPECTED_ERROR = 0.01;
+
+    @Test
+    public void growsWithoutExceedingTheExpectedError () {
+        ScalableBloomFilter filter = new ScalableBloomFilter(10000, EXPECTED_ERROR, HashingMode.DOUBLE_HASHING);
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            filter.add(i);
+        }
+        assertTrue("filters: " + filter.getNumFilters(), filter.getNumFilters() > 1);
+        for (long i = 0; i < NUM_ELEMENTS; i++) {
+            assertTrue("element " + i, filter.contains(i));
+        }
+        int falsePositives = 0;
+        for (long i = NUM_ELEMENTS; i < 2L * NUM_ELEMENTS; i++) {
+            if (filter.contains(i)) {
+                falsePositives++;
+            }
+        }
+        double measured = falsePositives / (double) NUM_ELEMENTS;
+        assertTrue("measured FPR " + measured, measured <= EXPECTED_ERROR);
+        assertTrue("estimated FPR " + filter.getFalsePositiveRate(), filter.getFalsePositiveRate() <= EXPECTED_ERROR);
+    }
+}
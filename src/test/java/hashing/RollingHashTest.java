@@ -0,0 +1,95 @@
+package hashing;
+
+import dataStructures.KmerEncoder;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The rolled hashes must be the same as hashing each window from scratch
+ */
+public class RollingHashTest {
+
+    private static final int[] K_VALUES = {1, 21, 31, 32};
+
+    private static final int SEQUENCE_LENGTH = 10000;
+
+    private static int[] randomCodes (long seed) {
+        Random random = new Random(seed);
+        int[] codes = new int[SEQUENCE_LENGTH];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = random.nextInt(4);
+        }
+        return codes;
+    }
+
+    @Test
+    public void rollMatchesHash () {
+        for (int k : K_VALUES) {
+            int[] codes = randomCodes(k);
+            RollingHash rollingHash = new RollingHash(k);
+            long mask = KmerEncoder.getMask(k);
+            long kmer = 0;
+            long hash = 0;
+            for (int i = 0; i < codes.length; i++) {
+                kmer = ((kmer << 2) | codes[i]) & mask;
+                if (i == k - 1) {
+                    hash = RollingHash.hash(kmer, k);
+                } else if (i >= k) {
+                    hash = rollingHash.roll(hash, codes[i - k], codes[i]);
+                    assertEquals("k = " + k + ", window " + (i - k + 1), RollingHash.hash(kmer, k), hash);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rollReverseMatchesHashOfReverseComplement () {
+        for (int k : K_VALUES) {
+            int[] codes = randomCodes(k + 100);
+            RollingHash rollingHash = new RollingHash(k);
+            long mask = KmerEncoder.getMask(k);
+            long kmer = 0;
+            long reverseHash = 0;
+            for (int i = 0; i < codes.length; i++) {
+                kmer = ((kmer << 2) | codes[i]) & mask;
+                long reverseKmer = KmerEncoder.reverseComplement(kmer, k);
+                if (i == k - 1) {
+                    reverseHash = RollingHash.hash(reverseKmer, k);
+                } else if (i >= k) {
+                    reverseHash = rollingHash.rollReverse(reverseHash, codes[i - k], codes[i]);
+                    assertEquals("k = " + k + ", window " + (i - k + 1), RollingHash.hash(reverseKmer, k), reverseHash);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canonicalHashMatchesHashOfCanonicalKmer () {
+        for (int k : K_VALUES) {
+            int[] codes = randomCodes(k + 200);
+            RollingHash rollingHash = new RollingHash(k);
+            long mask = KmerEncoder.getMask(k);
+            long kmer = 0;
+            long hash = 0;
+            long reverseHash = 0;
+            for (int i = 0; i < codes.length; i++) {
+                kmer = ((kmer << 2) | codes[i]) & mask;
+                if (i == k - 1) {
+                    hash = RollingHash.hash(kmer, k);
+                    reverseHash = RollingHash.hash(KmerEncoder.reverseComplement(kmer, k), k);
+                } else if (i >= k) {
+                    hash = rollingHash.roll(hash, codes[i - k], codes[i]);
+                    reverseHash = rollingHash.rollReverse(reverseHash, codes[i - k], codes[i]);
+                }
+                if (i >= k - 1) {
+                    long canonical = KmerEncoder.canonical(kmer, k);
+                    long canonicalHash = canonical == kmer ? hash : reverseHash;
+                    assertEquals("k = " + k + ", window " + (i - k + 1), RollingHash.hash(canonical, k), canonicalHash);
+                }
+            }
+        }
+    }
+}